@@ -0,0 +1,63 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import xyz.isaiahp.timer.BitsetTimeWheel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * schedule then cancel a batch of timers with the bulk APIs against the same work done one call at a time
+ * a batch lands in @buckets consecutive buckets, eg. a fan-out with a handful of distinct deadlines
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class BulkScheduleBenchmark {
+    private static final long RESOLUTION = 16;
+
+    @Param({"64", "1024"})
+    private int batchSize;
+
+    @Param({"1", "8"})
+    private int buckets;
+
+    private BitsetTimeWheel wheel;
+    private long[] deadlines;
+    private int[] ids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final long startTime = 0;
+        wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, RESOLUTION, 1024,
+                (batchSize / buckets + 2 * Long.SIZE) & ~(Long.SIZE - 1));
+        deadlines = new long[batchSize];
+        ids = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            //sorted by deadline as a fan-out naturally produces them
+            deadlines[i] = startTime + 100 + (long) (i * buckets / batchSize) * RESOLUTION;
+        }
+    }
+
+    @Benchmark
+    public int scalarLoop() {
+        for (int i = 0; i < batchSize; i++) {
+            ids[i] = wheel.scheduleTimeout(deadlines[i]);
+        }
+        int cancelled = 0;
+        for (int i = 0; i < batchSize; i++) {
+            if (wheel.cancelTimer(ids[i])) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    @Benchmark
+    public int bulk() {
+        wheel.scheduleTimeouts(deadlines, ids, batchSize);
+        return wheel.cancelTimers(ids, batchSize);
+    }
+}
@@ -0,0 +1,69 @@
+package xyz.isaiahp.timer.bench;
+
+import xyz.isaiahp.timer.TimeOut;
+
+/**
+ * steady state churn, each step cancels the timer a slot scheduled a full round of slots ago (unless it
+ * already fired) and schedules a new one, time advances a tick and is polled every @OPS_PER_TICK steps
+ * so the number of resident timers stays around the number of slots, a tick is @tickStep in the timer's unit
+ */
+final class Churn {
+    static final int OPS_PER_TICK = 64;
+    private static final int FIRED = -1;
+
+    private final TimeOut timeOut;
+    private final int[] timerIds;
+    private final long[] timeouts;
+    private final long tickStep;
+    private final TimeOut.AttachmentHandler onExpired = this::onExpired;
+    private long now;
+    private int slot;
+    private int timeout;
+    private int ops;
+
+    Churn(TimeOut timeOut, long startTime, int slots, long[] timeouts) {
+        this(timeOut, startTime, slots, timeouts, 1);
+    }
+
+    Churn(TimeOut timeOut, long startTime, int slots, long[] timeouts, long tickStep) {
+        this.timeOut = timeOut;
+        this.tickStep = tickStep;
+        this.timerIds = new int[slots];
+        this.timeouts = timeouts;
+        this.now = startTime;
+        for (int i = 0; i < slots; i++) {
+            timerIds[i] = timeOut.scheduleTimeout(now + nextTimeout(), i);
+        }
+    }
+
+    int step() {
+        final int current = slot;
+        if (++slot == timerIds.length) {
+            slot = 0;
+        }
+        if (timerIds[current] != FIRED) {
+            timeOut.cancelTimer(timerIds[current]);
+        }
+        final int timerId = timeOut.scheduleTimeout(now + nextTimeout(), current);
+        timerIds[current] = timerId;
+        if (++ops == OPS_PER_TICK) {
+            ops = 0;
+            timeOut.pollTimeouts(now += tickStep, onExpired);
+        }
+        return timerId;
+    }
+
+    private long nextTimeout() {
+        final long next = timeouts[timeout];
+        if (++timeout == timeouts.length) {
+            timeout = 0;
+        }
+        return next;
+    }
+
+    private void onExpired(java.util.concurrent.TimeUnit timeUnit, long now, int timerId, long attachment) {
+        if (timerIds[(int) attachment] == timerId) {
+            timerIds[(int) attachment] = FIRED;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import xyz.isaiahp.timer.BitsetTimeWheel;
+import xyz.isaiahp.timer.ConcurrentTimeOut;
+import xyz.isaiahp.timer.TimeOut;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * producers schedule and cancel from many threads while one thread polls
+ * run with 1..16 producer threads, see {@link RunBench}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class ConcurrentTimeoutBenchmark {
+
+    private static final long TIMEOUT_MILLIS = 500;
+    private static final TimeOut.Handler NO_OP = (timeUnit, now, timerId) -> {
+    };
+
+    private BitsetTimeWheel lockedWheel;
+    private ConcurrentTimeOut concurrentTimeOut;
+    private Thread poller;
+    private volatile boolean running;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        final long startTime = System.currentTimeMillis();
+        lockedWheel = newWheel(startTime);
+        concurrentTimeOut = new ConcurrentTimeOut(newWheel(startTime), 4096, 1 << 20);
+        running = true;
+        poller = new Thread(() -> {
+            while (running) {
+                final long now = System.currentTimeMillis();
+                concurrentTimeOut.pollTimeouts(now, NO_OP);
+                synchronized (lockedWheel) {
+                    lockedWheel.pollTimeouts(now, NO_OP);
+                }
+            }
+        }, "timer-poller");
+        poller.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        poller.join();
+    }
+
+    private static BitsetTimeWheel newWheel(long startTime) {
+        return new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64 * 64, 1, 1 << 20);
+    }
+
+    @Benchmark
+    public int mpscScheduleAndCancel() {
+        final int timeoutId = concurrentTimeOut.scheduleTimeout(System.currentTimeMillis() + TIMEOUT_MILLIS);
+        concurrentTimeOut.cancelTimer(timeoutId);
+        return timeoutId;
+    }
+
+    @Benchmark
+    public int lockedScheduleAndCancel() {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        synchronized (lockedWheel) {
+            final int timeoutId = lockedWheel.scheduleTimeout(deadline);
+            lockedWheel.cancelTimer(timeoutId);
+            return timeoutId;
+        }
+    }
+}
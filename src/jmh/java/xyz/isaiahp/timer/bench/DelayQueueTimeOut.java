@@ -0,0 +1,107 @@
+package xyz.isaiahp.timer.bench;
+
+import xyz.isaiahp.timer.TimeOut;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DelayQueue} baseline behind {@link TimeOut}, one object per timer as an application would use it,
+ * delays are measured against the simulated now of the last poll
+ */
+final class DelayQueueTimeOut implements TimeOut {
+    private final DelayQueue<Entry> queue = new DelayQueue<>();
+    private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+    private Entry[] entries;
+    private int nextId;
+    private long now;
+
+    DelayQueueTimeOut(long startTime, int initialCapacity) {
+        this.now = startTime;
+        this.entries = new Entry[Math.max(initialCapacity, 16)];
+    }
+
+    @Override
+    public int scheduleTimeout(long deadline, long attachment) {
+        if (deadline <= now) return ERR_EXPIRED;
+        final Integer free = freeIds.poll();
+        final int timerId = free != null ? free : nextId++;
+        if (timerId == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        final Entry entry = new Entry(timerId, deadline, attachment);
+        entries[timerId] = entry;
+        queue.add(entry);
+        return timerId;
+    }
+
+    @Override
+    public boolean cancelTimer(int timeoutId) {
+        final Entry entry = timeoutId < 0 || timeoutId >= nextId ? null : entries[timeoutId];
+        if (entry == null || !queue.remove(entry)) {
+            return false;
+        }
+        release(timeoutId);
+        return true;
+    }
+
+    @Override
+    public boolean rescheduleTimeout(int timeoutId, long deadline) {
+        final Entry entry = timeoutId < 0 || timeoutId >= nextId ? null : entries[timeoutId];
+        if (entry == null || !queue.remove(entry)) {
+            return false;
+        }
+        entry.deadline = deadline;
+        queue.add(entry);
+        return true;
+    }
+
+    @Override
+    public int pollTimeouts(long now, AttachmentHandler handler) {
+        return pollTimeouts(now, handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int pollTimeouts(long now, AttachmentHandler handler, int maxExpiries) {
+        if (now < this.now) return 0;
+        this.now = now;
+        int expiredCount = 0;
+        Entry entry;
+        while (expiredCount < maxExpiries && (entry = queue.poll()) != null) {
+            release(entry.timerId);
+            handler.onTimeout(TimeUnit.MILLISECONDS, now, entry.timerId, entry.attachment);
+            expiredCount++;
+        }
+        return expiredCount;
+    }
+
+    private void release(int timerId) {
+        entries[timerId] = null;
+        freeIds.push(timerId);
+    }
+
+    private final class Entry implements Delayed {
+        private final int timerId;
+        private final long attachment;
+        private long deadline;
+
+        private Entry(int timerId, long deadline, long attachment) {
+            this.timerId = timerId;
+            this.deadline = deadline;
+            this.attachment = attachment;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - now, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadline, ((Entry) other).deadline);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import xyz.isaiahp.timer.WheelScheduledExecutor;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ScheduledThreadPoolExecutor} baseline for {@link WorkloadBenchmark}, the same schedule/cancel churn
+ * over @resident outstanding tasks, against {@link WheelScheduledExecutor} with and without recycled futures.
+ * executors run on wall clock time so delays are offset far enough that nothing fires, the cost compared is
+ * schedule, cancel and the garbage they leave
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 3, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class ExecutorBaselineBenchmark {
+    private static final long MAX_TIMEOUT = 8192;
+    private static final long NEVER_FIRES = TimeUnit.HOURS.toMillis(1);
+    private static final Runnable NOOP = () -> {
+    };
+
+    @Param({"jdk", "wheel", "wheelPooled"})
+    private String executorType;
+
+    @Param({Workloads.UNIFORM, Workloads.SKEWED})
+    private String distribution;
+
+    @Param({"10000", "100000"})
+    private int resident;
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?>[] futures;
+    private long[] timeouts;
+    private int slot;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (executorType) {
+            case "jdk":
+                final ScheduledThreadPoolExecutor jdk = new ScheduledThreadPoolExecutor(1);
+                //as the wheel does, cancelled tasks leave the queue rather than waiting for their delay
+                jdk.setRemoveOnCancelPolicy(true);
+                executor = jdk;
+                break;
+            case "wheel":
+            case "wheelPooled":
+                //3 levels of 8192 one millisecond ticks hold the hour offset
+                executor = new WheelScheduledExecutor(Runnable::run, TimeUnit.MILLISECONDS, 1, 8192,
+                        Workloads.wheelTimerPerTick(resident, MAX_TIMEOUT), 3, resident,
+                        "wheelPooled".equals(executorType) ? 1 << 16 : 0);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown executor " + executorType);
+        }
+        timeouts = Workloads.timeouts(distribution, 1 << 16, MAX_TIMEOUT, 42);
+        futures = new ScheduledFuture<?>[resident];
+        for (int i = 0; i < resident; i++) {
+            futures[i] = schedule();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public ScheduledFuture<?> churn() {
+        futures[slot].cancel(false);
+        final ScheduledFuture<?> future = schedule();
+        futures[slot] = future;
+        if (++slot == futures.length) {
+            slot = 0;
+        }
+        return future;
+    }
+
+    private ScheduledFuture<?> schedule() {
+        final long timeout = timeouts[index];
+        index = (index + 1) & (timeouts.length - 1);
+        return executor.schedule(NOOP, NEVER_FIRES + timeout, TimeUnit.MILLISECONDS);
+    }
+}
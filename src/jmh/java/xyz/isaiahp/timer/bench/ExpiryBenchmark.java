@@ -0,0 +1,72 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import xyz.isaiahp.timer.BitsetTimeWheel;
+import xyz.isaiahp.timer.TimeOut;
+import xyz.isaiahp.timer.TimeoutBatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost per expired timer of draining sparse (one timer per tick) and dense (whole batch in one tick) buckets
+ * through the per timer handler and the batch handler, time is simulated so no clock is read
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@OperationsPerInvocation(ExpiryBenchmark.TIMERS)
+public class ExpiryBenchmark {
+    static final int TIMERS = 4096;
+    private static final long RESOLUTION = 1;
+    private static final long MAX_TIMEOUT = 8192;
+
+    @Param({"sparse", "dense"})
+    private String density;
+
+    private BitsetTimeWheel wheel;
+    private TimeoutBatch batch;
+    private TimeOut.AttachmentHandler handler;
+    private long now;
+    private long ticksPerTimer;
+
+    @Setup(Level.Trial)
+    public void setup(Blackhole bh) {
+        now = 0;
+        wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, now, RESOLUTION, MAX_TIMEOUT, TIMERS);
+        ticksPerTimer = "sparse".equals(density) ? 1 : 0;
+        handler = (timeUnit, time, timerId, attachment) -> bh.consume(attachment);
+        batch = new TimeoutBatch(1024, (timeUnit, time, timerIds, attachments, count) -> {
+            for (int i = 0; i < count; i++) {
+                bh.consume(attachments[i]);
+            }
+        });
+    }
+
+    private void fill() {
+        for (int i = 0; i < TIMERS; i++) {
+            wheel.scheduleTimeout(now + 1 + i * ticksPerTimer, i);
+        }
+    }
+
+    private long end() {
+        return now + 2 + TIMERS * ticksPerTimer;
+    }
+
+    @Benchmark
+    public int perTimerHandler() {
+        fill();
+        now = end();
+        return wheel.pollTimeouts(now, handler);
+    }
+
+    @Benchmark
+    public int batchHandler() {
+        fill();
+        now = end();
+        return wheel.pollTimeouts(now, batch);
+    }
+}
@@ -0,0 +1,65 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import xyz.isaiahp.timer.FutureTimeouts;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a call that completes before its timeout, the common case, through {@link CompletableFuture#orTimeout}
+ * and through {@link FutureTimeouts} polled every millisecond by a background thread
+ * run with the gc profiler, the JDK path allocates a delayed task and its cancel per call
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 3, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class FutureTimeoutBenchmark {
+    private static final long TIMEOUT_MILLIS = 1000;
+
+    private FutureTimeouts timeouts;
+    private Thread poller;
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final long startTime = System.currentTimeMillis();
+        timeouts = new FutureTimeouts(TimeUnit.MILLISECONDS, startTime, 1, 2 * TIMEOUT_MILLIS, 64, 1 << 16, 1 << 16);
+        running = true;
+        poller = new Thread(() -> {
+            while (running) {
+                timeouts.pollTimeouts(System.currentTimeMillis());
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        poller.join();
+    }
+
+    @Benchmark
+    public CompletableFuture<Integer> jdkOrTimeout() {
+        final CompletableFuture<Integer> future = new CompletableFuture<Integer>().orTimeout(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        future.complete(1);
+        return future;
+    }
+
+    @Benchmark
+    public CompletableFuture<Integer> wheelOrTimeout() {
+        final CompletableFuture<Integer> future = timeouts.orTimeout(new CompletableFuture<>(), TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        future.complete(1);
+        return future;
+    }
+}
@@ -0,0 +1,96 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import xyz.isaiahp.timer.BitsetTimeWheel;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sessions holding @TIMERS_PER_SESSION timers each (idle, heartbeat, request, retransmit) disconnect and
+ * reconnect round robin, an operation tears a session's timers down and schedules them again
+ * the caller tracking every id and cancelling them against cancelGroup on a wheel with timer groups
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class GroupCancelBenchmark {
+    private static final int TIMERS_PER_SESSION = 4;
+    private static final long MAX_TIMEOUT = 4096;
+
+    @Param({"10000", "100000"})
+    private int sessions;
+
+    private BitsetTimeWheel trackedWheel;
+    private BitsetTimeWheel groupWheel;
+    private int[] sessionIds;
+    private long[] timeouts;
+    private int session;
+    private int timeout;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final int resident = sessions * TIMERS_PER_SESSION;
+        final int timerPerTick = Workloads.wheelTimerPerTick(resident, MAX_TIMEOUT);
+        trackedWheel = Workloads.newWheel(0, 1, MAX_TIMEOUT, timerPerTick, resident / 4);
+        groupWheel = Workloads.newWheel(0, 1, MAX_TIMEOUT, timerPerTick, resident / 4);
+        groupWheel.timerGroups(sessions);
+        sessionIds = new int[resident];
+        final Random random = new Random(42);
+        timeouts = new long[1 << 16];
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = 1 + random.nextInt((int) MAX_TIMEOUT - 2);
+        }
+        for (int s = 0; s < sessions; s++) {
+            for (int i = 0; i < TIMERS_PER_SESSION; i++) {
+                sessionIds[s * TIMERS_PER_SESSION + i] = trackedWheel.scheduleTimeout(timeouts[i], s);
+                groupWheel.scheduleTimeout(timeouts[i], s, s);
+            }
+        }
+    }
+
+    @Benchmark
+    public int trackedIds() {
+        final int s = nextSession();
+        final int first = s * TIMERS_PER_SESSION;
+        int cancelled = 0;
+        for (int i = 0; i < TIMERS_PER_SESSION; i++) {
+            if (trackedWheel.cancelTimer(sessionIds[first + i])) {
+                cancelled++;
+            }
+        }
+        for (int i = 0; i < TIMERS_PER_SESSION; i++) {
+            sessionIds[first + i] = trackedWheel.scheduleTimeout(nextTimeout(), s);
+        }
+        return cancelled;
+    }
+
+    @Benchmark
+    public int cancelGroup() {
+        final int s = nextSession();
+        final int cancelled = groupWheel.cancelGroup(s);
+        for (int i = 0; i < TIMERS_PER_SESSION; i++) {
+            groupWheel.scheduleTimeout(nextTimeout(), s, s);
+        }
+        return cancelled;
+    }
+
+    private int nextSession() {
+        final int s = session;
+        if (++session == sessions) {
+            session = 0;
+        }
+        return s;
+    }
+
+    private long nextTimeout() {
+        final long next = timeouts[timeout];
+        if (++timeout == timeouts.length) {
+            timeout = 0;
+        }
+        return next;
+    }
+}
@@ -0,0 +1,78 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import xyz.isaiahp.timer.BitsetTimeWheel;
+import xyz.isaiahp.timer.TimeOut;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * heartbeats of @sessions sessions, every @HEARTBEAT ms with phases spread over the period
+ * native periodic timers re-armed by the wheel against the handler scheduling the next heartbeat and
+ * storing its new id back, an operation is one poll advancing time a tick
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class PeriodicBenchmark {
+    private static final long RESOLUTION = 1;
+    private static final long HEARTBEAT = 1000;
+
+    @Param({"10000", "100000"})
+    private int sessions;
+
+    private BitsetTimeWheel wheel;
+    private int[] timerIds;
+    private long now;
+    private long fired;
+    private final TimeOut.AttachmentHandler onPeriodic = this::onPeriodic;
+    private final TimeOut.AttachmentHandler onHeartbeat = this::onHeartbeat;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        now = 0;
+        wheel = Workloads.newWheel(now, RESOLUTION, 2 * HEARTBEAT,
+                Workloads.wheelTimerPerTick(sessions, HEARTBEAT), sessions / 4);
+        timerIds = new int[sessions];
+    }
+
+    private void schedulePeriodic() {
+        for (int i = 0; i < sessions; i++) {
+            timerIds[i] = wheel.schedulePeriodic(now + 1 + (i % HEARTBEAT), HEARTBEAT, true, i);
+        }
+    }
+
+    private void scheduleOneShot() {
+        for (int i = 0; i < sessions; i++) {
+            timerIds[i] = wheel.scheduleTimeout(now + 1 + (i % HEARTBEAT), i);
+        }
+    }
+
+    @Benchmark
+    public int nativePeriodic() {
+        if (wheel.count() == 0) {
+            schedulePeriodic();
+        }
+        return wheel.pollTimeouts(now += RESOLUTION, onPeriodic);
+    }
+
+    @Benchmark
+    public int rescheduleInHandler() {
+        if (wheel.count() == 0) {
+            scheduleOneShot();
+        }
+        return wheel.pollTimeouts(now += RESOLUTION, onHeartbeat);
+    }
+
+    private void onPeriodic(TimeUnit timeUnit, long now, int timerId, long session) {
+        fired++;
+    }
+
+    private void onHeartbeat(TimeUnit timeUnit, long now, int timerId, long session) {
+        fired++;
+        timerIds[(int) session] = wheel.scheduleTimeout(now + HEARTBEAT, session);
+    }
+}
@@ -0,0 +1,53 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import xyz.isaiahp.timer.TimeOut;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost of one poll per tick with @resident timers scheduled, expired timers are rescheduled from the handler
+ * so the fill level stays constant, about @resident / @MAX_TIMEOUT timers fire per tick
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 3, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class PollBenchmark {
+    static final long MAX_TIMEOUT = 8192;
+
+    @Param({Workloads.WHEEL, Workloads.HEAP, Workloads.DELAY_QUEUE})
+    private String impl;
+
+    @Param({"1000", "100000", "1000000"})
+    private int resident;
+
+    private TimeOut timeOut;
+    private long[] timeouts;
+    private int index;
+    private long now;
+    private final TimeOut.AttachmentHandler reschedule = (timeUnit, time, timerId, attachment) ->
+            timeOut.scheduleTimeout(time + nextTimeout());
+
+    @Setup(Level.Trial)
+    public void setup() {
+        timeOut = Workloads.newTimeOut(impl, now, MAX_TIMEOUT, resident);
+        timeouts = Workloads.timeouts(Workloads.UNIFORM, 1 << 16, MAX_TIMEOUT, 42);
+        for (int i = 0; i < resident; i++) {
+            timeOut.scheduleTimeout(now + nextTimeout());
+        }
+    }
+
+    @Benchmark
+    public int pollTick() {
+        return timeOut.pollTimeouts(++now, reschedule);
+    }
+
+    private long nextTimeout() {
+        final long timeout = timeouts[index];
+        index = (index + 1) & (timeouts.length - 1);
+        return timeout;
+    }
+}
@@ -2,15 +2,64 @@ package xyz.isaiahp.timer.bench;
 
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
-import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 
+/**
+ * with no arguments runs the single threaded timer suite then the concurrent benchmarks over 1..16 threads,
+ * otherwise the arguments are taken as JMH's own command line, eg. {@code WorkloadBenchmark -p impl=wheel}.
+ * every run reports allocation through the gc profiler, VolatileBenchmark is a baseline of the machine and
+ * only runs when asked for
+ */
 public class RunBench {
+    private static final String[] TIMER_SUITE = {
+            PollBenchmark.class.getSimpleName(),
+            StormBenchmark.class.getSimpleName(),
+            WorkloadBenchmark.class.getSimpleName(),
+            WheelConfigBenchmark.class.getSimpleName(),
+            TimeUnitBenchmark.class.getSimpleName(),
+            ExecutorBaselineBenchmark.class.getSimpleName(),
+            FutureTimeoutBenchmark.class.getSimpleName(),
+            PeriodicBenchmark.class.getSimpleName(),
+            GroupCancelBenchmark.class.getSimpleName(),
+            TimeoutBenchmark.class.getSimpleName(),
+            ExpiryBenchmark.class.getSimpleName(),
+            BulkScheduleBenchmark.class.getSimpleName(),
+            TouchBenchmark.class.getSimpleName(),
+            StorageBenchmark.class.getSimpleName(),
+    };
 
-    public static void main(String[] args) throws RunnerException {
-        Options options = new OptionsBuilder()
-                .include(VolatileBenchmark.class.getSimpleName())
-                .build();
-        new Runner(options).run();
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        if (args.length > 0) {
+            new Runner(withProfilers(new OptionsBuilder().parent(new CommandLineOptions(args))).build()).run();
+            return;
+        }
+        final ChainedOptionsBuilder suite = withProfilers(new OptionsBuilder());
+        for (String benchmark : TIMER_SUITE) {
+            suite.include(only(benchmark));
+        }
+        new Runner(suite.build()).run();
+
+        for (int threads = 1; threads <= 16; threads <<= 1) {
+            new Runner(withProfilers(new OptionsBuilder())
+                    .include(only(ConcurrentTimeoutBenchmark.class.getSimpleName()))
+                    .include(only(ShardedTimeoutBenchmark.class.getSimpleName()))
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+
+    /**
+     * includes are regexes found in the full benchmark name, match the class alone so TimeoutBenchmark
+     * does not also pick up ConcurrentTimeoutBenchmark
+     */
+    private static String only(String simpleName) {
+        return "\\." + simpleName + "\\.";
+    }
+
+    private static ChainedOptionsBuilder withProfilers(ChainedOptionsBuilder builder) {
+        return builder.addProfiler("gc");
     }
 }
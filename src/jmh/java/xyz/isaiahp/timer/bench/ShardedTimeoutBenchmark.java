@@ -0,0 +1,73 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+import xyz.isaiahp.timer.BitsetTimeWheel;
+import xyz.isaiahp.timer.ShardedTimeOut;
+import xyz.isaiahp.timer.TimeOut;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * every benchmark thread owns one shard, schedules, cancels and polls it
+ * run with 1..16 threads to see throughput scale with cores, see {@link RunBench}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class ShardedTimeoutBenchmark {
+
+    private static final int SHARDS = 16;
+    private static final long TIMEOUT_MILLIS = 500;
+    private static final int POLL_INTERVAL_MASK = 63;
+    private static final TimeOut.Handler NO_OP = (timeUnit, now, timerId) -> {
+    };
+
+    private ShardedTimeOut service;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        final long startTime = System.currentTimeMillis();
+        service = new ShardedTimeOut(SHARDS,
+                shard -> new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64 * 16, 1, 64 * 1024),
+                4096);
+    }
+
+    @State(Scope.Thread)
+    public static class ShardState {
+        private ShardedTimeOut.Shard shard;
+        private long operations;
+
+        @Setup(Level.Iteration)
+        public void setup(ShardedTimeoutBenchmark benchmark, ThreadParams threadParams) {
+            shard = benchmark.service.shard(threadParams.getThreadIndex() % SHARDS);
+            operations = 0;
+        }
+
+        private void maybePoll() {
+            if ((++operations & POLL_INTERVAL_MASK) == 0) {
+                shard.pollTimeouts(System.currentTimeMillis(), NO_OP);
+            }
+        }
+    }
+
+    @Benchmark
+    public int localScheduleAndCancel(ShardState state) {
+        final ShardedTimeOut.Shard shard = state.shard;
+        final int timeoutId = shard.scheduleTimeout(System.currentTimeMillis() + TIMEOUT_MILLIS);
+        shard.cancelTimer(timeoutId);
+        state.maybePoll();
+        return timeoutId;
+    }
+
+    @Benchmark
+    public int routedCancel(ShardState state) {
+        final int timeoutId = state.shard.scheduleTimeout(System.currentTimeMillis() + TIMEOUT_MILLIS);
+        service.cancelTimer(timeoutId);
+        state.maybePoll();
+        return timeoutId;
+    }
+}
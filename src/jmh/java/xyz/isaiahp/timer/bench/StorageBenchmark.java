@@ -0,0 +1,85 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import xyz.isaiahp.timer.BitsetStorage;
+import xyz.isaiahp.timer.BitsetTimeWheel;
+import xyz.isaiahp.timer.TimeOut;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * heap vs off heap wheel bitsets on a large wheel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class StorageBenchmark {
+
+    private static final long RESOLUTION = 1;
+    private static final TimeOut.Handler NO_OP = (timeUnit, now, timerId) -> {
+    };
+
+    @Param({"heap", "direct", "directHugePage"})
+    private String storage;
+
+    @Param({"512", "2048"})
+    private int timerPerTick;
+
+    @Param({"65536"})
+    private long maxTimeout;
+
+    private BitsetTimeWheel wheel;
+    private long[] deadlines;
+    private int index;
+    private long now;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        final IntFunction<BitsetStorage> factory;
+        switch (storage) {
+            case "direct":
+                factory = BitsetStorage::direct;
+                break;
+            case "directHugePage":
+                factory = words -> BitsetStorage.direct(words, BitsetStorage.HUGE_PAGE_SIZE);
+                break;
+            default:
+                factory = BitsetStorage::heap;
+        }
+        wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, 0, RESOLUTION, maxTimeout, timerPerTick, 1, 0, factory);
+        final Random random = new Random(1);
+        deadlines = new long[1 << 16];
+        for (int i = 0; i < deadlines.length; i++) {
+            deadlines[i] = 1 + random.nextInt((int) maxTimeout / 2);
+        }
+        //half fill the wheel
+        for (int i = 0; i < deadlines.length; i++) {
+            wheel.scheduleTimeout(deadlines[i]);
+        }
+        index = 0;
+        now = 0;
+    }
+
+    @Benchmark
+    public int scheduleAndCancel() {
+        final long deadline = now + deadlines[index];
+        index = (index + 1) & (deadlines.length - 1);
+        final int timeoutId = wheel.scheduleTimeout(deadline);
+        wheel.cancelTimer(timeoutId);
+        return timeoutId;
+    }
+
+    @Benchmark
+    public int scheduleAndPoll() {
+        final long deadline = now + deadlines[index];
+        index = (index + 1) & (deadlines.length - 1);
+        wheel.scheduleTimeout(deadline);
+        now += RESOLUTION;
+        return wheel.pollTimeouts(now, NO_OP);
+    }
+}
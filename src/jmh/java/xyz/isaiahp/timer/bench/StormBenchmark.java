@@ -0,0 +1,51 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import xyz.isaiahp.timer.TimeOut;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * expiry storm, @stormSize timers sharing one deadline expired by a single poll, eg. a burst of connections
+ * opened together timing out together. each invocation is a whole storm, divide by @stormSize for per timer cost
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 3, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class StormBenchmark {
+    private static final long MAX_TIMEOUT = 1024;
+
+    @Param({Workloads.WHEEL, Workloads.HEAP, Workloads.DELAY_QUEUE})
+    private String impl;
+
+    @Param({"1000", "10000", "100000"})
+    private int stormSize;
+
+    private TimeOut timeOut;
+    private long now;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        timeOut = Workloads.WHEEL.equals(impl)
+                //the whole storm lands in one bucket
+                ? Workloads.newWheel(now, 1, MAX_TIMEOUT, (stormSize + Long.SIZE - 1) & ~(Long.SIZE - 1), 0)
+                : Workloads.newTimeOut(impl, now, MAX_TIMEOUT, stormSize);
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        for (int i = 0; i < stormSize; i++) {
+            timeOut.scheduleTimeout(now + 1, i);
+        }
+    }
+
+    @Benchmark
+    public int storm(Blackhole bh) {
+        now += 2;
+        return timeOut.pollTimeouts(now, (timeUnit, time, timerId, attachment) -> bh.consume(attachment));
+    }
+}
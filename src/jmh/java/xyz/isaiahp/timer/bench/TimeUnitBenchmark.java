@@ -0,0 +1,53 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import xyz.isaiahp.timer.BitsetTimeWheel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the skewed churn of {@link WheelConfigBenchmark} on the same wheel of @TICKS buckets of about a millisecond,
+ * kept in milliseconds, microseconds or nanoseconds. times are 64 bit in every unit, a nanosecond wheel
+ * spanning seconds costs what a millisecond one does. the nanosecond clock starts just short of overflow so the
+ * run crosses it, as System.nanoTime may
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 3, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class TimeUnitBenchmark {
+    private static final int TICKS = 8192;
+
+    @Param({"MILLISECONDS", "MICROSECONDS", "NANOSECONDS"})
+    private TimeUnit timeUnit;
+
+    @Param({"1", "3"})
+    private int levels;
+
+    @Param({"100000"})
+    private int resident;
+
+    private Churn churn;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        //power of 2 at or above a millisecond in the unit
+        final long tickGranularity = Long.highestOneBit(timeUnit.convert(1, TimeUnit.MILLISECONDS) * 2 - 1);
+        final long startTime = timeUnit == TimeUnit.NANOSECONDS ? Long.MAX_VALUE - TimeUnit.SECONDS.toNanos(1) : 0;
+        final BitsetTimeWheel wheel = new BitsetTimeWheel(timeUnit, startTime, tickGranularity,
+                TICKS * tickGranularity - 1 - tickGranularity, Workloads.wheelTimerPerTick(resident, TICKS), levels,
+                resident);
+        final long[] timeouts = Workloads.timeouts(Workloads.SKEWED, 1 << 16, TICKS - 1, 42);
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] *= tickGranularity;
+        }
+        churn = new Churn(wheel, startTime, resident, timeouts, tickGranularity);
+    }
+
+    @Benchmark
+    public int churn() {
+        return churn.step();
+    }
+}
@@ -40,7 +40,7 @@ public class TimeoutBenchmark {
     }
 
     @State(Scope.Benchmark)
-    private static class TestCase {
+    public static class TestCase {
         @Param({"10000", "100000", "200000"})
         private int size;
 
@@ -53,22 +53,37 @@ public class TimeoutBenchmark {
         private final Random random = new Random();
         private long[] timeouts;
         private int index;
+        private long startTime;
 
         @Setup(Level.Iteration)
         public void setup() {
-            long startTime = System.currentTimeMillis();
-            bitsetTimeWheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, resolutionMillis, maxTimeoutMillis, 64);
+            startTime = System.currentTimeMillis();
+            //size each bucket so the wheel can hold all @size resident timers, like the heap does
+            final long ticks = maxTimeoutMillis / resolutionMillis;
+            final int timerPerTick = (int) (((2 * size / ticks) + Long.SIZE) & ~(Long.SIZE - 1));
+            bitsetTimeWheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, resolutionMillis, maxTimeoutMillis, timerPerTick);
             binaryHeapTimer = new BinaryHeapTimer(startTime,32);
             timeouts = new long[size];
             index = 0;
             for (int i = 0; i < size; i++) {
-                int timeoutMillis = (int) (resolutionMillis + random.nextInt((int) maxTimeoutMillis));
+                int timeoutMillis = (int) (resolutionMillis + random.nextInt((int) maxTimeoutMillis - (int) resolutionMillis));
                 timeouts[i] = timeoutMillis;
             }
+            //keep @size timers resident so schedule/cancel run against a populated structure
+            for (int i = 0; i < size; i++) {
+                bitsetTimeWheel.scheduleTimeout(startTime + timeouts[i]);
+                binaryHeapTimer.scheduleTimeout(startTime + timeouts[i]);
+            }
         }
 
+        /**
+         * relative to the start time, nothing polls so the timers' notion of now never moves,
+         * no clock is read on the measured path
+         */
         public long nextDeadline() {
-            return System.currentTimeMillis() + timeouts[index++];
+            final long timeout = timeouts[index];
+            index = (index + 1) % size;
+            return startTime + timeout;
         }
     }
 }
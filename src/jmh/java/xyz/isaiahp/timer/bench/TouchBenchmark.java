@@ -0,0 +1,79 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import xyz.isaiahp.timer.BitsetTimeWheel;
+import xyz.isaiahp.timer.TimeOut;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * idle timeouts of @connections connections pushed forward on every inbound message
+ * rescheduleTimeout in place against cancel + schedule with the new id stored back, time is simulated
+ * and advances one tick every @messagesPerTick messages
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class TouchBenchmark {
+    private static final long RESOLUTION = 16;
+    private static final long IDLE_TIMEOUT = 30_000;
+    private static final TimeOut.Handler NO_OP = (timeUnit, now, timerId) -> {
+    };
+
+    @Param({"10000", "100000"})
+    private int connections;
+
+    @Param({"1000"})
+    private int messagesPerTick;
+
+    private BitsetTimeWheel wheel;
+    private int[] timerIds;
+    private int[] messageOrder;
+    private int message;
+    private long now;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        now = 0;
+        final long ticks = IDLE_TIMEOUT / RESOLUTION;
+        final int timerPerTick = (int) ((2 * connections / ticks + 2 * Long.SIZE) & ~(Long.SIZE - 1));
+        wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, now, RESOLUTION, IDLE_TIMEOUT, timerPerTick);
+        timerIds = new int[connections];
+        for (int i = 0; i < connections; i++) {
+            timerIds[i] = wheel.scheduleTimeout(now + IDLE_TIMEOUT);
+        }
+        final Random random = new Random(1);
+        messageOrder = new int[1 << 16];
+        for (int i = 0; i < messageOrder.length; i++) {
+            messageOrder[i] = random.nextInt(connections);
+        }
+        message = 0;
+    }
+
+    private int nextConnection() {
+        if (++message % messagesPerTick == 0) {
+            now += RESOLUTION;
+            wheel.pollTimeouts(now, NO_OP);
+        }
+        return messageOrder[message & (messageOrder.length - 1)];
+    }
+
+    @Benchmark
+    public boolean touch() {
+        final int connection = nextConnection();
+        return wheel.rescheduleTimeout(timerIds[connection], now + IDLE_TIMEOUT);
+    }
+
+    @Benchmark
+    public int cancelAndSchedule() {
+        final int connection = nextConnection();
+        wheel.cancelTimer(timerIds[connection]);
+        final int timerId = wheel.scheduleTimeout(now + IDLE_TIMEOUT);
+        timerIds[connection] = timerId;
+        return timerId;
+    }
+}
@@ -0,0 +1,52 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+import xyz.isaiahp.timer.BitsetTimeWheel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the churn workload of {@link WorkloadBenchmark} over wheel configurations, to pick tick granularity and
+ * bucket capacity for a workload. buckets too small for the distribution overflow into the spill pool
+ * precise coarse ticks against fine ticks shows what exact deadline order costs
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 3, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class WheelConfigBenchmark {
+    private static final long MAX_TIMEOUT = 8192;
+
+    @Param({"1", "8", "32"})
+    private long tickGranularity;
+
+    @Param({"64", "256", "1024"})
+    private int timerPerTick;
+
+    @Param({Workloads.UNIFORM, Workloads.SKEWED})
+    private String distribution;
+
+    @Param({"100000"})
+    private int resident;
+
+    @Param({"false", "true"})
+    private boolean precise;
+
+    private Churn churn;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final BitsetTimeWheel wheel = Workloads.newWheel(0, tickGranularity, MAX_TIMEOUT, timerPerTick, resident);
+        if (precise) {
+            wheel.preciseDeadlines();
+        }
+        churn = new Churn(wheel, 0, resident, Workloads.timeouts(distribution, 1 << 16, MAX_TIMEOUT, 42));
+    }
+
+    @Benchmark
+    public int churn() {
+        return churn.step();
+    }
+}
@@ -0,0 +1,41 @@
+package xyz.isaiahp.timer.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * steady state churn, see {@link Churn}, against each implementation and deadline distribution,
+ * run with the gc profiler to compare allocation per operation
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 3, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+@Measurement(iterations = 5, timeUnit = TimeUnit.MILLISECONDS, time = 2000)
+public class WorkloadBenchmark {
+    private static final long MAX_TIMEOUT = 8192;
+
+    @Param({Workloads.WHEEL, Workloads.HEAP, Workloads.DELAY_QUEUE})
+    private String impl;
+
+    @Param({Workloads.UNIFORM, Workloads.SKEWED})
+    private String distribution;
+
+    @Param({"10000", "100000"})
+    private int resident;
+
+    private Churn churn;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        churn = new Churn(Workloads.newTimeOut(impl, 0, MAX_TIMEOUT, resident), 0, resident,
+                Workloads.timeouts(distribution, 1 << 16, MAX_TIMEOUT, 42));
+    }
+
+    @Benchmark
+    public int churn() {
+        return churn.step();
+    }
+}
@@ -0,0 +1,74 @@
+package xyz.isaiahp.timer.bench;
+
+import xyz.isaiahp.timer.BinaryHeapTimer;
+import xyz.isaiahp.timer.BitsetTimeWheel;
+import xyz.isaiahp.timer.TimeOut;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * timer implementations and deadline distributions shared by the benchmarks, time is simulated in
+ * milliseconds so no clock is read on a measured path
+ */
+final class Workloads {
+    static final String WHEEL = "wheel";
+    static final String HEAP = "heap";
+    static final String DELAY_QUEUE = "delayQueue";
+
+    static final String UNIFORM = "uniform";
+    /**
+     * exponential with a mean of 1/16 of the range, most timeouts short with a long tail
+     */
+    static final String SKEWED = "skewed";
+
+    private Workloads() {
+    }
+
+    static long[] timeouts(String distribution, int count, long maxTimeout, long seed) {
+        final Random random = new Random(seed);
+        final long[] timeouts = new long[count];
+        for (int i = 0; i < count; i++) {
+            final long timeout;
+            switch (distribution) {
+                case UNIFORM:
+                    timeout = 1 + (long) (random.nextDouble() * (maxTimeout - 1));
+                    break;
+                case SKEWED:
+                    timeout = 1 + (long) (-Math.log(1 - random.nextDouble()) * maxTimeout / 16);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown distribution " + distribution);
+            }
+            timeouts[i] = Math.min(timeout, maxTimeout - 1);
+        }
+        return timeouts;
+    }
+
+    /**
+     * @param resident timers expected to be scheduled at once, sizes the wheel buckets and spill pool
+     */
+    static TimeOut newTimeOut(String impl, long startTime, long maxTimeout, int resident) {
+        switch (impl) {
+            case WHEEL:
+                return newWheel(startTime, 1, maxTimeout, wheelTimerPerTick(resident, maxTimeout), resident / 4);
+            case HEAP:
+                return new BinaryHeapTimer(startTime, resident);
+            case DELAY_QUEUE:
+                return new DelayQueueTimeOut(startTime, resident);
+            default:
+                throw new IllegalArgumentException("unknown timer " + impl);
+        }
+    }
+
+    static BitsetTimeWheel newWheel(long startTime, long tickGranularity, long maxTimeout, int timerPerTick, int spillTimers) {
+        return new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, tickGranularity, maxTimeout, timerPerTick, 1, spillTimers);
+    }
+
+    /**
+     * twice the average bucket fill rounded up to whole words
+     */
+    static int wheelTimerPerTick(int resident, long ticks) {
+        return (int) ((2 * resident / ticks + 2 * Long.SIZE - 1) & ~(Long.SIZE - 1));
+    }
+}
@@ -1,27 +1,216 @@
 package xyz.isaiahp.timer;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * indexed d-ary min heap of deadlines, timers expire in exact deadline order
+ * heap entries live in the parallel @deadlines / @timerIds arrays and @heapIndex maps
+ * a timerId back to its heap position, so cancel is O(log n) and allocation free
+ */
 public class BinaryHeapTimer implements TimeOut {
-    private final long[] deadlines;
-    private final int[] timerIds;
-    private int nextTimeId = 1;
-    
+    public static final int DEFAULT_ARITY = 4;
+    private static final int NOT_IN_HEAP = -1;
+
+    private final TimeUnit timeUnit;
+    /**
+     * log2 of the heap arity, children of i are at (i << arityBits) + 1 .. (i << arityBits) + arity
+     */
+    private final int arityBits;
+    private long[] deadlines;
+    private int[] timerIds;
+    /**
+     * attachment per timerId
+     */
+    private long[] attachments;
+    /**
+     * timerId -> position in heap, NOT_IN_HEAP once the timer expired or was cancelled
+     */
+    private int[] heapIndex;
+    /**
+     * stack of released timer ids, ids are recycled so @heapIndex never exceeds capacity
+     */
+    private int[] freeIds;
+    private int freeCount;
+    private int nextTimeId = 0;
+    private int size;
+    /**
+     * time of the last poll, deadlines at or before this are already expired
+     */
+    private long currentTime;
+
     public BinaryHeapTimer(long startTime, int initialCapacity) {
+        this(TimeUnit.MILLISECONDS, startTime, initialCapacity, DEFAULT_ARITY);
+    }
+
+    public BinaryHeapTimer(TimeUnit timeUnit, long startTime, int initialCapacity, int arity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("initialCapacity must be positive " + initialCapacity);
+        }
+        BitsetTimeWheel.checkPowerOf2(arity, "arity");
+        this.timeUnit = timeUnit;
+        this.currentTime = startTime;
+        this.arityBits = Integer.numberOfTrailingZeros(arity);
         deadlines = new long[initialCapacity];
         timerIds = new int[initialCapacity];
+        heapIndex = new int[initialCapacity];
+        attachments = new long[initialCapacity];
+        freeIds = new int[initialCapacity];
     }
 
-    public int scheduleTimeout(long deadline) {
-        return 0;
+    @Override
+    public int scheduleTimeout(long deadline, long attachment) {
+        if (deadline <= currentTime) return ERR_EXPIRED;
+        if (size == deadlines.length) {
+            grow();
+        }
+        final int timerId = freeCount > 0 ? freeIds[--freeCount] : nextTimeId++;
+        attachments[timerId] = attachment;
+        siftUp(size++, deadline, timerId);
+        return timerId;
     }
 
     @Override
     public boolean cancelTimer(int timeoutId) {
-        return false;
+        if (timeoutId < 0 || timeoutId >= nextTimeId) {
+            return false;
+        }
+        final int pos = heapIndex[timeoutId];
+        if (pos == NOT_IN_HEAP) {
+            return false;
+        }
+        removeAt(pos);
+        return true;
     }
 
     @Override
-    public int pollTimeouts(long now, Handler handler) {
-        return 0;
+    public boolean rescheduleTimeout(int timeoutId, long deadline) {
+        //as scheduleTimeout, a deadline already passed is refused rather than fired on the next poll
+        if (timeoutId < 0 || timeoutId >= nextTimeId || deadline <= currentTime) {
+            return false;
+        }
+        final int pos = heapIndex[timeoutId];
+        if (pos == NOT_IN_HEAP) {
+            return false;
+        }
+        if (deadline < deadlines[pos]) {
+            siftUp(pos, deadline, timeoutId);
+        } else {
+            siftDown(pos, deadline, timeoutId);
+        }
+        return true;
     }
 
+    @Override
+    public int pollTimeouts(long now, AttachmentHandler handler) {
+        return pollTimeouts(now, handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int pollTimeouts(long now, AttachmentHandler handler, int maxExpiries) {
+        if (now < currentTime) return 0;
+        //advance first, so timers scheduled from the callback at or before now are rejected as expired
+        currentTime = now;
+        int expiredCount = 0;
+        while (size > 0 && deadlines[0] <= now && expiredCount < maxExpiries) {
+            final int timerId = timerIds[0];
+            removeAt(0);
+            handler.onTimeout(timeUnit, now, timerId, attachments[timerId]);
+            expiredCount++;
+        }
+        return expiredCount;
+    }
+
+    private void removeAt(int pos) {
+        final int releasedId = timerIds[pos];
+        heapIndex[releasedId] = NOT_IN_HEAP;
+        freeIds[freeCount++] = releasedId;
+        final int last = --size;
+        if (pos == last) {
+            return;
+        }
+        final long deadline = deadlines[last];
+        final int timerId = timerIds[last];
+        if (pos > 0 && deadlines[parentOf(pos)] > deadline) {
+            siftUp(pos, deadline, timerId);
+        } else {
+            siftDown(pos, deadline, timerId);
+        }
+    }
+
+    private void siftUp(int pos, long deadline, int timerId) {
+        while (pos > 0) {
+            final int parent = parentOf(pos);
+            final long parentDeadline = deadlines[parent];
+            if (parentDeadline <= deadline) {
+                break;
+            }
+            place(pos, parentDeadline, timerIds[parent]);
+            pos = parent;
+        }
+        place(pos, deadline, timerId);
+    }
+
+    private void siftDown(int pos, long deadline, int timerId) {
+        while (true) {
+            final int firstChild = (pos << arityBits) + 1;
+            if (firstChild >= size) {
+                break;
+            }
+            final int endChild = Math.min(firstChild + (1 << arityBits), size);
+            int minChild = firstChild;
+            long minDeadline = deadlines[firstChild];
+            for (int child = firstChild + 1; child < endChild; child++) {
+                final long childDeadline = deadlines[child];
+                if (childDeadline < minDeadline) {
+                    minDeadline = childDeadline;
+                    minChild = child;
+                }
+            }
+            if (deadline <= minDeadline) {
+                break;
+            }
+            place(pos, minDeadline, timerIds[minChild]);
+            pos = minChild;
+        }
+        place(pos, deadline, timerId);
+    }
+
+    private void place(int pos, long deadline, int timerId) {
+        deadlines[pos] = deadline;
+        timerIds[pos] = timerId;
+        heapIndex[timerId] = pos;
+    }
+
+    private int parentOf(int pos) {
+        return (pos - 1) >> arityBits;
+    }
+
+    private void grow() {
+        final int capacity = deadlines.length;
+        if (capacity >= (Integer.MAX_VALUE >> 1)) {
+            throw new IllegalStateException("heap capacity exhausted " + capacity);
+        }
+        final int newCapacity = capacity << 1;
+        deadlines = Arrays.copyOf(deadlines, newCapacity);
+        timerIds = Arrays.copyOf(timerIds, newCapacity);
+        heapIndex = Arrays.copyOf(heapIndex, newCapacity);
+        attachments = Arrays.copyOf(attachments, newCapacity);
+        freeIds = Arrays.copyOf(freeIds, newCapacity);
+    }
+
+    /**
+     * earliest pending deadline, Long.MAX_VALUE when empty
+     */
+    public long nextDeadline() {
+        return size == 0 ? Long.MAX_VALUE : deadlines[0];
+    }
+
+    public long getCurrentTime() {
+        return currentTime;
+    }
+
+    public int count() {
+        return size;
+    }
 }
@@ -0,0 +1,40 @@
+package xyz.isaiahp.timer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * fixed size array of 64 bit words holding the wheel bitsets, allocated once
+ */
+public interface BitsetStorage {
+    int CACHE_LINE_SIZE = 64;
+    int HUGE_PAGE_SIZE = 2 * 1024 * 1024;
+
+    long get(int index);
+
+    void set(int index, long value);
+
+    /**
+     * number of words
+     */
+    int length();
+
+    static BitsetStorage heap(int words) {
+        return new HeapBitsetStorage(words);
+    }
+
+    /**
+     * off heap words in a direct buffer, not scanned or copied by the GC
+     */
+    static BitsetStorage direct(int words) {
+        return direct(words, CACHE_LINE_SIZE);
+    }
+
+    /**
+     * @param alignment start address alignment in bytes, power of 2, eg. CACHE_LINE_SIZE or HUGE_PAGE_SIZE
+     */
+    static BitsetStorage direct(int words, int alignment) {
+        BitsetTimeWheel.checkPowerOf2(alignment, "alignment");
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(words * Long.BYTES + alignment);
+        return new ByteBufferBitsetStorage(buffer.alignedSlice(alignment), words);
+    }
+}
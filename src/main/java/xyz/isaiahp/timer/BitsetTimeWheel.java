@@ -1,13 +1,41 @@
 package xyz.isaiahp.timer;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 
 public class BitsetTimeWheel implements TimeOut {
     private static final long EMPTY_BITSET = 0L;
     private static final long FULL_BITSET = -1L;
-    public static final byte ERR_OUT_OF_RANGE = -2;
-    public static final byte ERR_EXPIRED = -3;
-    public static final byte ERR_CAPACITY_EXCEEDED = -4;
+    private static final int NO_SPILL = -1;
+    private static final int HANDLE_GENERATION_SHIFT = 32;
+    private static final int SNAPSHOT_MAGIC = 0x54574845;
+    private static final int SNAPSHOT_VERSION = 4;
+    private static final int SNAPSHOT_HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 8 + 4 + 1;
+    private static final byte SNAPSHOT_ATTACHMENTS = 1;
+    private static final byte SNAPSHOT_GENERATIONS = 2;
+    private static final byte SNAPSHOT_RELOCATION = 4;
+    private static final byte SNAPSHOT_PRECISE = 8;
+    private static final byte SNAPSHOT_PERIODIC = 16;
+    private static final byte SNAPSHOT_GROUPS = 32;
+    /**
+     * a flag adds fields to the layout, a reader meeting one it does not know cannot skip them
+     */
+    private static final byte SNAPSHOT_KNOWN_FLAGS = SNAPSHOT_ATTACHMENTS | SNAPSHOT_GENERATIONS | SNAPSHOT_RELOCATION
+            | SNAPSHOT_PRECISE | SNAPSHOT_PERIODIC | SNAPSHOT_GROUPS;
+    /**
+     * largest wheel span in @timeUnit, a duration is a 64 bit power of 2
+     */
+    private static final long MAX_DURATION = 1L << 62;
+    /**
+     * buckets per level are bounded by memory, the range in time is buckets * granularity and levels
+     */
+    private static final long MAX_TICKS = 1L << 30;
+    /**
+     * words of slots a wheel can hold with timer id = word * 64 + bit an int
+     */
+    private static final long MAX_WORDS = 1L << (Integer.SIZE - 1 - 6);
 
     private final TimeUnit timeUnit;
 
@@ -27,40 +55,238 @@ public class BitsetTimeWheel implements TimeOut {
 
 
     private int timerPerTick = 64;
-    private long[] timerWheel;
+    private final BitsetStorage timerWheel;
     /**
      * monotonically increasing
      * approx currentTime = startTime + (currentTick * granularity)
      */
     private long currentTick;
 
+    /**
+     * number of wheels, level 0 is the fine wheel, each coarser level has the same number of buckets
+     * and a bucket at level L spans ticks^L fine ticks, so range grows as ticks^levels
+     * coarse buckets are laid out in @timerWheel after the fine wheel, level by level
+     */
+    private final int levels;
+    /**
+     * log2 of number of buckets per level
+     */
+    private final int wheelBits;
+    /**
+     * furthest bucket (exclusive) a timer may be placed ahead of @currentTick on a level
+     */
+    private final int maxRange;
+
+    /*
+     * relocation state, allocated when levels > 1 or on first reschedule
+     * timer ids are a permutation of the slots, @slotIds holds the id of every slot and @idSlots the slot of
+     * every id, a timer scheduled into a free slot takes the id the slot holds, when it cascades to a lower
+     * level or is rescheduled it takes its id to the new slot and leaves the id of that slot on the one it
+     * freed, so a moved timer holds one slot and keeps its id, 8 bytes per slot
+     * @deadlineTicks holds the deadline of every live slot, @touchedSlots marks slots whose deadline was
+     * pushed past their bucket, they are moved rather than expired when the bucket comes due
+     */
+    private long[] deadlineTicks;
+    private int[] slotIds;
+    private int[] idSlots;
+    private long[] touchedSlots;
+    /**
+     * a timer could not be moved for lack of capacity, it stays in its bucket which is marked again so
+     * the move is retried when the bucket comes round
+     */
+    private boolean deferredMove;
+
+    /*
+     * shared pool of overflow words appended to @timerWheel after the wheel levels, allocated once
+     * a full bucket chains pool words through @spillNext starting at @spillHeads[level * ticks + bucket]
+     * so spilled timers get ordinary, stable wheel ids, only allocated when a pool is requested
+     */
+    private final int spillBase;
+    private final int[] spillHeads;
+    private final int[] spillNext;
+    private int freeSpill = NO_SPILL;
+
+    /*
+     * occupancy summary, one bit per bucket (level * ticks + bucket) that may hold timers and a second
+     * level with one bit per non zero @occupied word, so poll and cascade jump to occupied buckets
+     * set when a slot is allocated and cleared when the bucket is drained, a cancel leaves the bit set
+     * and the stale bit is dropped when the bucket is found empty
+     */
+    private final long[] occupied;
+    private final long[] occupiedSummary;
+
+    /**
+     * attachment per timer id, allocated on first non zero attachment
+     */
+    private long[] attachments;
+
+    /**
+     * handle mode, generation per timer id bumped each time the id is handed out
+     * a handle is (generation << 32 | timerId) so a cancel holding a handle of a reused id is a no-op
+     * 16 bit generations, a stale handle can only alias after 65536 reuses of its id
+     * allocated on first use of a handle
+     */
+    private short[] generations;
+
+    /**
+     * batch of the poll in progress, filled directly rather than through the handler interface
+     */
+    private TimeoutBatch batch;
+
+    /**
+     * scratch of scheduleTimeouts, @bucketCounts per bucket of the call in progress, zero between calls,
+     * @bucketOrder positions of the batch grouped by bucket, allocated on first use
+     */
+    private int[] bucketCounts;
+    private int[] bucketOrder;
+
+    /**
+     * expiries left in the poll in progress
+     */
+    private int expiryBudget;
+
+    /*
+     * precise mode, @exactDeadlines holds the deadline of every live slot, the bucket of the tick being expired
+     * is staged as keys (offset of the deadline in its tick << @slotBits | slot) sorted on offset in @stagedKeys,
+     * taken from @stagedNext, so timers fire in deadline order and those of the current tick as soon as now
+     * reaches them. a timer scheduled, cascaded or rescheduled into the staged tick is pushed on the min heap
+     * @pushedKeys, entries are checked when taken so one left behind by a cancel or reschedule is skipped
+     */
+    private long[] exactDeadlines;
+    private int slotBits;
+    private long[] stagedKeys;
+    private long[] stagedScratch;
+    private int[] radixCounts;
+    private int stagedNext;
+    private int stagedCount;
+    private long[] pushedKeys;
+    private int pushedCount;
+    private long stagedTick = -1;
+
+    /*
+     * periodic timers, @PERIODIC_FIELDS longs per timer id, allocated on first use, interleaved
+     * so a re-arm touches one line: the period, 0 for a one shot timer, the negated delay for a fixed delay
+     * one, the exact deadline of the period pending and the periods skipped by the last expiry
+     * a periodic timer is moved to its next deadline as it fires, keeping its id
+     */
+    private static final int PERIODIC_FIELDS = 3;
+    private static final int PERIOD = 0;
+    private static final int PERIODIC_DEADLINE = 1;
+    private static final int MISSED_PERIODS = 2;
+    private long[] periodics;
+
+    /*
+     * timer groups, eg. the timers of a session, allocated by timerGroups. @GROUP_FIELDS ints per timer id
+     * interleaved as for @periodics: its group, NO_GROUP for none, and the next and previous timer
+     * of the group, chained from @groupHeads. the extra last head holds the chain expireGroup is draining
+     */
+    private static final int GROUP_FIELDS = 3;
+    private static final int GROUP = 0;
+    private static final int GROUP_NEXT = 1;
+    private static final int GROUP_PREV = 2;
+    private static final int NO_GROUP = -1;
+    private static final int NO_TIMER = -1;
+    private int[] groupHeads;
+    private int[] groups;
 
 
     public BitsetTimeWheel(TimeUnit timeUnit, long startTime, long tickGranularity, long requestedMaxTimeoutDuration, int timerPerTick) {
+        this(timeUnit, startTime, tickGranularity, requestedMaxTimeoutDuration, timerPerTick, 1, 0);
+    }
+
+    public BitsetTimeWheel(TimeUnit timeUnit, long startTime, long tickGranularity, long requestedMaxTimeoutDuration,
+                           int timerPerTick, int levels) {
+        this(timeUnit, startTime, tickGranularity, requestedMaxTimeoutDuration, timerPerTick, levels, 0);
+    }
+
+    public BitsetTimeWheel(TimeUnit timeUnit, long startTime, long tickGranularity, long requestedMaxTimeoutDuration,
+                           int timerPerTick, int levels, int spillTimers) {
+        this(timeUnit, startTime, tickGranularity, requestedMaxTimeoutDuration, timerPerTick, levels, spillTimers,
+                BitsetStorage::heap);
+    }
+
+    /**
+     * times are 64 bit in @timeUnit and only compared as differences from @startTime, eg. System.nanoTime() for a
+     * NANOSECONDS wheel. the number of buckets is bounded by memory, a nanosecond wheel over seconds takes a
+     * coarser @tickGranularity or @levels, eg. 1024ns ticks over 4096 buckets and 3 levels span 4ms / 17s / 19h
+     * @param requestedMaxTimeoutDuration range of the fine wheel, timeouts beyond it are held in
+     *                                    @levels - 1 coarser wheels and cascaded down as time advances
+     * @param spillTimers                 size of the overflow pool shared by buckets that exceed @timerPerTick
+     * @param storageFactory              allocates the wheel bitsets given a number of words, eg. off heap
+     */
+    public BitsetTimeWheel(TimeUnit timeUnit, long startTime, long tickGranularity, long requestedMaxTimeoutDuration,
+                           int timerPerTick, int levels, int spillTimers, IntFunction<BitsetStorage> storageFactory) {
 
         checkPowerOf2(tickGranularity, "tickGranularity");
+        if (levels < 1) {
+            throw new IllegalArgumentException("levels must be at least 1 " + levels);
+        }
+        if (spillTimers < 0) {
+            throw new IllegalArgumentException("spillTimers must not be negative " + spillTimers);
+        }
         this.timeUnit = timeUnit;
         this.startTime = startTime;
         this.currentTick = 0;
         this.tickGranularityBits = Long.numberOfTrailingZeros(tickGranularity);
-        this.maxTimeoutDuration = getRequiredMaxDuration(requestedMaxTimeoutDuration, (int) tickGranularity);
+        this.maxTimeoutDuration = getRequiredMaxDuration(requestedMaxTimeoutDuration, tickGranularity);
         checkPowerOf2(this.maxTimeoutDuration, "requestedMaxTimeoutDuration");
-        final int ticks = (int) (this.maxTimeoutDuration >> tickGranularityBits);
+        final long wheelTicks = this.maxTimeoutDuration >> tickGranularityBits;
+        if (wheelTicks > MAX_TICKS) {
+            throw new IllegalArgumentException("requestedMaxTimeoutDuration needs " + wheelTicks
+                    + " buckets, use a coarser tickGranularity or levels");
+        }
+        final int ticks = (int) wheelTicks;
         checkPowerOf2(ticks, "ticks");
         this.timerPerTick = timerPerTick;
         final int longPerBucket = timerPerTick /(Long.SIZE);
-        timerWheel = new long[ticks * longPerBucket];
+        this.levels = levels;
+        this.wheelBits = Integer.numberOfTrailingZeros(ticks);
+        if ((long) wheelBits * levels + tickGranularityBits >= Long.SIZE - 1) {
+            throw new IllegalArgumentException("levels exceed tick range " + levels);
+        }
+        final int spillWords = (spillTimers + Long.SIZE - 1) / Long.SIZE;
+        if ((long) levels * ticks * longPerBucket + spillWords > MAX_WORDS) {
+            //timer ids are non negative ints
+            throw new IllegalArgumentException("timers exceed the id space of a wheel, partition them across wheels "
+                    + "eg. with ShardedTimeOut " + levels + " * " + ticks + " * " + timerPerTick + " + " + spillTimers);
+        }
+        this.occupied = new long[(levels * ticks + Long.SIZE - 1) / Long.SIZE];
+        this.occupiedSummary = new long[(occupied.length + Long.SIZE - 1) / Long.SIZE];
+        this.spillBase = levels * ticks * longPerBucket;
+        timerWheel = storageFactory.apply(spillBase + spillWords);
         this.activeTimers = 0;
+        if (spillWords == 0) {
+            this.spillHeads = null;
+            this.spillNext = null;
+        } else {
+            this.spillHeads = new int[levels * ticks];
+            Arrays.fill(spillHeads, NO_SPILL);
+            this.spillNext = new int[spillWords];
+            for (int i = spillWords - 1; i >= 0; i--) {
+                spillNext[i] = freeSpill;
+                freeSpill = spillBase + i;
+            }
+        }
+        if (levels == 1) {
+            //one slot reserved for buffering timers when scheduling during call back
+            this.maxRange = ticks - 1;
+        } else {
+            //the bucket behind currentTick is always drained, cascaded timers may land in it
+            this.maxRange = ticks;
+            allocateRelocation();
+        }
 
     }
 
-    private static long getRequiredMaxDuration(long requestedDuration, int granularity) {
-        int required = (int) (requestedDuration + 1 + granularity);
-        return nextPowerOf2(required);
+    private static long getRequiredMaxDuration(long requestedDuration, long granularity) {
+        if (requestedDuration < 0 || requestedDuration > MAX_DURATION - 1 - granularity) {
+            throw new IllegalArgumentException("requestedMaxTimeoutDuration out of range " + requestedDuration);
+        }
+        return nextPowerOf2(requestedDuration + 1 + granularity);
     }
 
-    private static int nextPowerOf2(int value) {
-        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(value - 1));
+    private static long nextPowerOf2(long value) {
+        return 1L << (Long.SIZE - Long.numberOfLeadingZeros(value - 1));
     }
 
     public static void checkPowerOf2(long value, String errorMsg) {
@@ -75,15 +301,17 @@ public class BitsetTimeWheel implements TimeOut {
     }
 
     @Override
-    public int scheduleTimeout(long deadline) {
+    public int scheduleTimeout(long deadline, long attachment) {
         if (startTime == deadline) return ERR_EXPIRED; //already expired
-        final int maxRange = (int) (maxTimeoutDuration >> tickGranularityBits) - 1;
         final long deadLineBucket = (deadline - startTime) >> tickGranularityBits;
-        if (deadLineBucket < 0) { //in past or expired
+        if (deadLineBucket < currentTick) { //in past or expired, a bucket behind the cursor only comes round a wheel later
             return ERR_EXPIRED;
         }
         if ((deadLineBucket - currentTick) >= maxRange) {
-            return ERR_OUT_OF_RANGE;
+            if (levels == 1) {
+                return ERR_OUT_OF_RANGE;
+            }
+            return scheduleCoarse(deadLineBucket, deadline, attachment);
         }
 
         final int bucketIndex = (int) (deadLineBucket & bucketMask());
@@ -92,23 +320,436 @@ public class BitsetTimeWheel implements TimeOut {
 
         for (int i = 0; i < longPerBucket; i++) {
             final int index = startIndex + i;
-            long timeBitSet = timerWheel[index];
+            long timeBitSet = timerWheel.get(index);
             short bitIndex = freeBitIndex(timeBitSet);
             if (bitIndex < 0) {
                 continue;
             }
-            timerWheel[index] = timeBitSet | (1L << bitIndex);
-            final int timerId = getTimerId(index, bitIndex);
+            timerWheel.set(index, timeBitSet | (1L << bitIndex));
+            markOccupied(bucketIndex);
             activeTimers++;
-            return timerId;
+            return initSlot(getSlot(index, bitIndex), deadLineBucket, deadline, attachment);
+        }
+        final int slot = allocateSpill(bucketIndex);
+        if (slot < 0) {
+            return ERR_CAPACITY_EXCEEDED;
+        }
+        markOccupied(bucketIndex);
+        activeTimers++;
+        return initSlot(slot, deadLineBucket, deadline, attachment);
+    }
+
+    /**
+     * the batch is bucketed first with a counting pass so deadlines sharing a bucket are placed in one pass
+     * whatever their order, each word of the bucket is read and written once and free bits are taken with
+     * numberOfTrailingZeros, expired, out of range and coarse deadlines take the single timer path
+     */
+    @Override
+    public int scheduleTimeouts(long[] deadlines, int[] outIds, int count) {
+        if (bucketCounts == null) {
+            bucketCounts = new int[bucketMask() + 1];
+        }
+        if (bucketOrder == null || bucketOrder.length < count) {
+            bucketOrder = new int[Math.max(count, 64)];
+        }
+        final int[] counts = bucketCounts;
+        final int[] order = bucketOrder;
+        int scheduled = 0;
+        int grouped = 0;
+        for (int i = 0; i < count; i++) {
+            final long deadline = deadlines[i];
+            final long deadLineBucket = (deadline - startTime) >> tickGranularityBits;
+            if (deadline == startTime || deadLineBucket < currentTick || (deadLineBucket - currentTick) >= maxRange) {
+                final int timerId = scheduleTimeout(deadline, 0L);
+                outIds[i] = timerId;
+                if (timerId >= 0) {
+                    scheduled++;
+                }
+                continue;
+            }
+            counts[(int) (deadLineBucket & bucketMask())]++;
+            grouped++;
+        }
+        if (grouped == 0) {
+            return scheduled;
+        }
+        //a bucket's run starts where the first of its deadlines is seen, counts turn to -(next position + 1)
+        int runEnd = 0;
+        for (int i = 0; i < count; i++) {
+            if (!isBucketed(deadlines[i])) {
+                continue;
+            }
+            final int bucketIndex = (int) (((deadlines[i] - startTime) >> tickGranularityBits) & bucketMask());
+            int position = counts[bucketIndex];
+            if (position > 0) {
+                final int start = runEnd;
+                runEnd += position;
+                position = -(start + 1);
+            }
+            order[-position - 1] = i;
+            counts[bucketIndex] = position - 1;
+        }
+        int from = 0;
+        while (from < grouped) {
+            final long deadLineBucket = (deadlines[order[from]] - startTime) >> tickGranularityBits;
+            final int bucketIndex = (int) (deadLineBucket & bucketMask());
+            final int to = -counts[bucketIndex] - 1;
+            counts[bucketIndex] = 0;
+            scheduled += fillBucket(deadLineBucket, deadlines, outIds, order, from, to);
+            from = to;
+        }
+        return scheduled;
+    }
+
+    private boolean isBucketed(long deadline) {
+        final long deadLineBucket = (deadline - startTime) >> tickGranularityBits;
+        return deadline != startTime && deadLineBucket >= currentTick && (deadLineBucket - currentTick) < maxRange;
+    }
+
+    private int fillBucket(long deadLineBucket, long[] deadlines, int[] outIds, int[] order, int from, int to) {
+        final int bucketIndex = (int) (deadLineBucket & bucketMask());
+        final int longPerBucket = longPerBucket();
+        final int startIndex = bucketIndex * longPerBucket;
+        int next = from;
+        for (int index = startIndex; index < startIndex + longPerBucket && next < to; index++) {
+            long timeBitSet = timerWheel.get(index);
+            if (timeBitSet == FULL_BITSET) {
+                continue;
+            }
+            while (timeBitSet != FULL_BITSET && next < to) {
+                final short bitIndex = (short) Long.numberOfTrailingZeros(~timeBitSet);
+                timeBitSet |= 1L << bitIndex;
+                final int position = order[next++];
+                outIds[position] = initSlot(getSlot(index, bitIndex), deadLineBucket, deadlines[position], 0L);
+            }
+            timerWheel.set(index, timeBitSet);
+        }
+        int scheduled = next - from;
+        for (; next < to; next++) {
+            final int position = order[next];
+            final int slot = allocateSpill(bucketIndex);
+            if (slot < 0) {
+                outIds[position] = ERR_CAPACITY_EXCEEDED;
+                continue;
+            }
+            outIds[position] = initSlot(slot, deadLineBucket, deadlines[position], 0L);
+            scheduled++;
+        }
+        if (scheduled > 0) {
+            markOccupied(bucketIndex);
+        }
+        activeTimers += scheduled;
+        return scheduled;
+    }
+
+    /**
+     * consecutive ids of the same word are cleared with one read and write
+     * a cascading or rescheduling wheel cancels one at a time as a timer may have moved from the slot of its id
+     */
+    @Override
+    public int cancelTimers(int[] ids, int count) {
+        if (slotIds != null || groups != null) {
+            return TimeOut.super.cancelTimers(ids, count);
+        }
+        final int limit = timerIdLimit();
+        int cancelled = 0;
+        int i = 0;
+        while (i < count) {
+            final int timeoutId = ids[i];
+            if (timeoutId < 0 || timeoutId >= limit) {
+                i++;
+                continue;
+            }
+            final int index = timeoutId / Long.SIZE;
+            long cancelMask = 0L;
+            do {
+                cancelMask |= 1L << ids[i];
+                i++;
+            } while (i < count && ids[i] >= 0 && ids[i] / Long.SIZE == index);
+            final long bitSet = timerWheel.get(index);
+            final long cleared = bitSet & cancelMask;
+            if (cleared != EMPTY_BITSET) {
+                timerWheel.set(index, bitSet & ~cleared);
+                cancelled += Long.bitCount(cleared);
+            }
+        }
+        activeTimers -= cancelled;
+        return cancelled;
+    }
+
+    /**
+     * @return the id of the timer now in @slot
+     */
+    private int initSlot(int slot, long deadlineTick, long deadline, long attachment) {
+        if (deadlineTicks != null) {
+            deadlineTicks[slot] = deadlineTick;
+            //a slot freed by a cancel keeps the touched bit of its last timer
+            touchedSlots[slot / Long.SIZE] &= ~(1L << (slot & (Long.SIZE - 1)));
+        }
+        if (exactDeadlines != null) {
+            exactDeadlines[slot] = deadline;
+            if (deadlineTick == stagedTick) {
+                pushStaged(slot);
+            }
+        }
+        final int timerId = idOf(slot);
+        if (generations != null) {
+            generations[timerId]++;
+        }
+        if (periodics != null) {
+            periodics[timerId * PERIODIC_FIELDS + PERIOD] = 0L;
+        }
+        if (attachments == null) {
+            if (attachment == 0L) {
+                return timerId;
+            }
+            attachments = new long[timerWheel.length() * Long.SIZE];
+        }
+        attachments[timerId] = attachment;
+        return timerId;
+    }
+
+    private int scheduleCoarse(long deadlineTick, long deadline, long attachment) {
+        final int level = levelFor(deadlineTick);
+        if (level >= levels) {
+            return ERR_OUT_OF_RANGE;
+        }
+        final int slot = allocateSlot(level, deadlineTick >> (level * wheelBits));
+        if (slot < 0) {
+            return ERR_CAPACITY_EXCEEDED;
+        }
+        activeTimers++;
+        return initSlot(slot, deadlineTick, deadline, attachment);
+    }
+
+    /**
+     * lowest level whose window ahead of @currentTick holds @deadlineTick, levels if none does
+     */
+    private int levelFor(long deadlineTick) {
+        for (int level = 0; level < levels; level++) {
+            final int shift = level * wheelBits;
+            if ((deadlineTick >> shift) - (currentTick >> shift) < maxRange) {
+                return level;
+            }
+        }
+        return levels;
+    }
+
+    private int allocateSlot(int level, long levelTick) {
+        final int longPerBucket = longPerBucket();
+        final int bucket = level * (bucketMask() + 1) + (int) (levelTick & bucketMask());
+        final int startIndex = bucket * longPerBucket;
+        for (int index = startIndex; index < startIndex + longPerBucket; index++) {
+            final long timeBitSet = timerWheel.get(index);
+            final short bitIndex = freeBitIndex(timeBitSet);
+            if (bitIndex < 0) {
+                continue;
+            }
+            timerWheel.set(index, timeBitSet | (1L << bitIndex));
+            markOccupied(bucket);
+            return getSlot(index, bitIndex);
+        }
+        final int slot = allocateSpill(bucket);
+        if (slot >= 0) {
+            markOccupied(bucket);
+        }
+        return slot;
+    }
+
+    /**
+     * take a free slot from the spill words chained to @bucket, chaining a new pool word if they are full
+     * @return slot or -1 when the pool is exhausted
+     */
+    private int allocateSpill(int bucket) {
+        if (spillHeads == null) {
+            return -1;
+        }
+        for (int index = spillHeads[bucket]; index != NO_SPILL; index = spillNext[index - spillBase]) {
+            final long timeBitSet = timerWheel.get(index);
+            final short bitIndex = freeBitIndex(timeBitSet);
+            if (bitIndex >= 0) {
+                timerWheel.set(index, timeBitSet | (1L << bitIndex));
+                return getSlot(index, bitIndex);
+            }
+        }
+        final int index = freeSpill;
+        if (index == NO_SPILL) {
+            return -1;
+        }
+        freeSpill = spillNext[index - spillBase];
+        spillNext[index - spillBase] = spillHeads[bucket];
+        spillHeads[bucket] = index;
+        timerWheel.set(index, 1L);
+        return getSlot(index, (short) 0);
+    }
+
+    /**
+     * return drained spill words of @bucket to the pool, words still holding timers stay chained
+     */
+    private void releaseEmptySpill(int bucket) {
+        int previous = NO_SPILL;
+        int index = spillHeads[bucket];
+        while (index != NO_SPILL) {
+            final int next = spillNext[index - spillBase];
+            if (timerWheel.get(index) == EMPTY_BITSET) {
+                if (previous == NO_SPILL) {
+                    spillHeads[bucket] = next;
+                } else {
+                    spillNext[previous - spillBase] = next;
+                }
+                spillNext[index - spillBase] = freeSpill;
+                freeSpill = index;
+            } else {
+                previous = index;
+            }
+            index = next;
+        }
+    }
+
+    private void markOccupied(int bucket) {
+        occupied[bucket >>> 6] |= 1L << bucket;
+        occupiedSummary[bucket >>> 12] |= 1L << (bucket >>> 6);
+    }
+
+    private void clearOccupied(int bucket) {
+        final int word = bucket >>> 6;
+        final long bits = occupied[word] & ~(1L << bucket);
+        occupied[word] = bits;
+        if (bits == EMPTY_BITSET) {
+            occupiedSummary[word >>> 6] &= ~(1L << word);
+        }
+    }
+
+    private boolean isOccupied(int bucket) {
+        return (occupied[bucket >>> 6] & (1L << bucket)) != 0L;
+    }
+
+    /**
+     * first bucket in [@from, @to) with its occupancy bit set, -1 if none
+     */
+    private int nextOccupied(int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int word = from >>> 6;
+        long bits = occupied[word] & (FULL_BITSET << from);
+        while (bits == EMPTY_BITSET) {
+            //skip empty words through the summary
+            word = nextOccupiedWord(word + 1);
+            if (word < 0 || word << 6 >= to) {
+                return -1;
+            }
+            bits = occupied[word];
+        }
+        final int bucket = word << 6 | Long.numberOfTrailingZeros(bits);
+        return bucket < to ? bucket : -1;
+    }
+
+    private int nextOccupiedWord(int from) {
+        int summaryIndex = from >>> 6;
+        if (summaryIndex >= occupiedSummary.length) {
+            return -1;
+        }
+        long bits = occupiedSummary[summaryIndex] & (FULL_BITSET << from);
+        while (bits == EMPTY_BITSET) {
+            if (++summaryIndex == occupiedSummary.length) {
+                return -1;
+            }
+            bits = occupiedSummary[summaryIndex];
+        }
+        return summaryIndex << 6 | Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * first tick in [@levelTick, @limit) whose bucket on @level is marked occupied, @limit if none
+     * the buckets of a level are searched once around the wheel starting at @levelTick
+     */
+    private long nextOccupiedTick(int level, long levelTick, long limit) {
+        final int ticks = bucketMask() + 1;
+        final int base = level * ticks;
+        final int from = (int) (levelTick & bucketMask());
+        final long span = Math.min(limit - levelTick, ticks);
+        int bucket = nextOccupied(base + from, base + (int) Math.min(from + span, ticks));
+        if (bucket >= 0) {
+            return levelTick + (bucket - base - from);
+        }
+        if (from + span > ticks) {
+            bucket = nextOccupied(base, base + (int) (from + span - ticks));
+            if (bucket >= 0) {
+                return levelTick + (ticks - from) + (bucket - base);
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * any live timer in the words or spill chain of @bucket
+     */
+    private boolean bucketHasTimers(int bucket) {
+        final int startIndex = bucket * longPerBucket();
+        for (int index = startIndex; index < startIndex + longPerBucket(); index++) {
+            if (timerWheel.get(index) != EMPTY_BITSET) {
+                return true;
+            }
+        }
+        if (spillHeads != null) {
+            for (int index = spillHeads[bucket]; index != NO_SPILL; index = spillNext[index - spillBase]) {
+                if (timerWheel.get(index) != EMPTY_BITSET) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * earliest deadline tick of the timers held in coarse @bucket, Long.MAX_VALUE if it is empty
+     */
+    private long minDeadlineTick(int bucket) {
+        long min = Long.MAX_VALUE;
+        final int startIndex = bucket * longPerBucket();
+        for (int index = startIndex; index < startIndex + longPerBucket(); index++) {
+            min = Math.min(min, minDeadlineTickOf(index));
+        }
+        if (spillHeads != null) {
+            for (int index = spillHeads[bucket]; index != NO_SPILL; index = spillNext[index - spillBase]) {
+                min = Math.min(min, minDeadlineTickOf(index));
+            }
+        }
+        return min;
+    }
+
+    private long minDeadlineTickOf(int index) {
+        long min = Long.MAX_VALUE;
+        for (long pending = timerWheel.get(index); pending != EMPTY_BITSET; pending &= pending - 1) {
+            min = Math.min(min, deadlineTicks[getSlot(index, (short) Long.numberOfTrailingZeros(pending))]);
+        }
+        return min;
+    }
+
+    private void rebuildOccupancy() {
+        for (int bucket = 0; bucket < levels * (bucketMask() + 1); bucket++) {
+            if (bucketHasTimers(bucket)) {
+                markOccupied(bucket);
+            }
         }
-        return ERR_CAPACITY_EXCEEDED;
     }
 
-    private int getTimerId(int index, short bitIndex) {
+    private int getSlot(int index, short bitIndex) {
         return index * Long.SIZE + bitIndex;
     }
 
+    /**
+     * id of the timer in @slot, of the next one scheduled into it when it is free
+     */
+    private int idOf(int slot) {
+        return slotIds == null ? slot : slotIds[slot];
+    }
+
+    private int slotOf(int timerId) {
+        return idSlots == null ? timerId : idSlots[timerId];
+    }
+
 
     private int longPerBucket() {
         return timerPerTick / Long.SIZE;
@@ -121,19 +762,27 @@ public class BitsetTimeWheel implements TimeOut {
 
 
     private static short freeBitIndex(long bitSet) {
-        if (bitSet == EMPTY_BITSET) return 0;
         if (bitSet == FULL_BITSET) return -1;
-        for (short j = 0; j < Long.SIZE; j++) {
-            if (0 == (bitSet & (1L << j))) {
-                return j;
-            }
-        }
-        return -1;
+        return (short) Long.numberOfTrailingZeros(~bitSet);
+    }
+
+    @Override
+    public int pollTimeouts(final long now, final TimeOut.AttachmentHandler handler)
+    {
+        return pollTimeouts(now, handler, Integer.MAX_VALUE);
     }
 
-    public int pollTimeouts(final long now, final TimeOut.Handler handler)
+    /**
+     * stops after @maxExpiries timers, @currentTick is left on a partly drained bucket so the next poll
+     * resumes with its remaining timers, expired ones are already cleared from their words
+     */
+    @Override
+    public int pollTimeouts(final long now, final TimeOut.AttachmentHandler handler, int maxExpiries)
     {
-        assert now >= startTime;
+        assert now - startTime >= 0;
+        if (maxExpiries < 1) {
+            throw new IllegalArgumentException("maxExpiries must be at least 1 " + maxExpiries);
+        }
         final long nowBucketId = (now - startTime) >> tickGranularityBits;
         if (nowBucketId < 0 || nowBucketId < currentTick) return 0;
         int expiredCount = 0;
@@ -141,62 +790,1309 @@ public class BitsetTimeWheel implements TimeOut {
             currentTick = nowBucketId;
             return 0;
         }
-        for (long i = currentTick; i < nowBucketId ; i++) {
-            final int index = (int) (i & bucketMask()) * longPerBucket();
-            expiredCount += expireTimersAt(index, handler, now);
-            currentTick += 1;
+        expiryBudget = maxExpiries;
+        for (long tick = currentTick; tick < nowBucketId && activeTimers > 0; ) {
+            currentTick = tick;
+            if (levels > 1 && (tick & bucketMask()) == 0) {
+                //a no-op when resuming a bucket whose cascade already ran, its coarse buckets are drained
+                cascade(tick);
+            }
+            //stop at the next cascade only while coarse levels hold timers
+            long limit = nowBucketId;
+            if (levels > 1 && nextOccupied(bucketMask() + 1, occupied.length * Long.SIZE) >= 0) {
+                limit = Math.min(limit, (tick | bucketMask()) + 1);
+            }
+            final long next = nextOccupiedTick(0, tick, limit);
+            if (next < limit) {
+                currentTick = next;
+                final int bucketIndex = (int) (next & bucketMask());
+                expiredCount += expireTimersAt(bucketIndex, handler, now);
+                if (expiryBudget == 0) {
+                    if (!isOccupied(bucketIndex)) {
+                        currentTick = next + 1;
+                    }
+                    return expiredCount;
+                }
+                tick = next + 1;
+            } else {
+                tick = limit;
+            }
+        }
+        currentTick = nowBucketId;
+        if (exactDeadlines != null && activeTimers > 0) {
+            expiredCount += expireCurrentTick(handler, now);
         }
-
         return expiredCount;
     }
 
-    private int expireTimersAt(int bucketIndex, Handler handler, long now) {
-        int count = 0;
-        int longPerBucket = longPerBucket();
-        for (int i = 0; i < longPerBucket; i++) {
-            final int index = bucketIndex + i;
-            long bitSet = timerWheel[index];
-            if (bitSet == EMPTY_BITSET) continue;
-            for (short j = 0; bitSet != EMPTY_BITSET && j < Long.SIZE; j++) {
-                long bitMask = (1L << j);
-                if ((bitSet & bitMask) != 0L) {
-                    timerWheel[index] &= ~bitMask; //clear the bit to cancel timeout
-                    bitSet &= ~bitMask;
-                    int timerId = getTimerId(index, j);
-                    activeTimers--;
-                    handler.onTimeout(timeUnit, now, timerId);
-                    count++;
-                }
-            }
+    /**
+     * precise mode, fire the timers of the tick now falls in whose deadline now has reached
+     */
+    private int expireCurrentTick(AttachmentHandler handler, long now) {
+        if (levels > 1 && (currentTick & bucketMask()) == 0) {
+            //bring down timers due this tick, the poll passing it later finds their coarse buckets drained
+            cascade(currentTick);
         }
-        return count;
+        final int bucketIndex = (int) (currentTick & bucketMask());
+        if (!isOccupied(bucketIndex) && stagedTick != currentTick) {
+            return 0;
+        }
+        return expireStaged(bucketIndex, currentTick, handler, now, now - tickStart(currentTick));
     }
 
+    /**
+     * expire into @batch, a fire storm of thousands of timers costs one handler call per full batch
+     */
     @Override
-    public boolean cancelTimer(int timeoutId) {
-        if (timeoutId < 0) {
-            return false;
-        }
-        if (clearBit(timeoutId, timerWheel)) {
-            activeTimers--;
-            return true;
+    public int pollTimeouts(final long now, final TimeoutBatch batch) {
+        this.batch = batch;
+        try {
+            return pollTimeouts(now, (AttachmentHandler) batch);
+        } finally {
+            this.batch = null;
+            batch.flush();
         }
-        return false;
     }
 
-    private static boolean clearBit(int timeoutId, long[] timerWheel) {
-        int bitSlot = timeoutId / Long.SIZE;
-        int bitMask = timeoutId & (Long.SIZE-1);
-        long set = timerWheel[bitSlot];
-        boolean isSet = (set & (1 << bitMask)) != 0;
-        assert isSet : "timeoutId not set";
-        if (isSet) {
-            timerWheel[bitSlot] = set & ~(1L << bitMask);
-            return true;
+    /**
+     * @tick starts a new bucket on every level it is a multiple of,
+     * move those buckets down a level, highest first so they are drained in the same pass
+     */
+    private void cascade(long tick) {
+        int topLevel = 1;
+        while (topLevel + 1 < levels && (tick & ((1L << ((topLevel + 1) * wheelBits)) - 1)) == 0) {
+            topLevel++;
+        }
+        for (int level = topLevel; level > 0; level--) {
+            final int bucket = level * (bucketMask() + 1) + (int) ((tick >> (level * wheelBits)) & bucketMask());
+            if (!isOccupied(bucket)) {
+                continue;
+            }
+            clearOccupied(bucket);
+            deferredMove = false;
+            final int startIndex = bucket * longPerBucket();
+            for (int index = startIndex; index < startIndex + longPerBucket(); index++) {
+                cascadeWord(index);
+            }
+            if (spillHeads != null && spillHeads[bucket] != NO_SPILL) {
+                for (int index = spillHeads[bucket]; index != NO_SPILL; index = spillNext[index - spillBase]) {
+                    cascadeWord(index);
+                }
+                releaseEmptySpill(bucket);
+            }
+            if (deferredMove) {
+                markOccupied(bucket);
+            }
         }
-        return false;
     }
 
+    private void cascadeWord(int index) {
+        long pending = timerWheel.get(index);
+        while (pending != EMPTY_BITSET) {
+            final short bitIndex = (short) Long.numberOfTrailingZeros(pending);
+            pending &= pending - 1;
+            cascadeSlot(index, bitIndex);
+        }
+    }
+
+    private boolean cascadeSlot(int index, short bitIndex) {
+        return cascadeSlot(index, bitIndex, deadlineTicks[getSlot(index, bitIndex)]);
+    }
+
+    /**
+     * move the timer in @bitIndex of word @index to a slot for @deadlineTick, its id goes with it
+     * @return false if no slot was free, the timer stays and @deferredMove is set
+     */
+    private boolean cascadeSlot(int index, short bitIndex, long deadlineTick) {
+        final long bitMask = 1L << bitIndex;
+        final int slot = getSlot(index, bitIndex);
+        final int level = levelFor(Math.max(deadlineTick, currentTick));
+        final boolean parked = level >= levels;
+        final int newSlot = relocate(deadlineTick, Math.min(level, levels - 1));
+        if (newSlot < 0) {
+            //moved on when its bucket comes round again
+            deadlineTicks[slot] = deadlineTick;
+            touchedSlots[index] |= bitMask;
+            deferredMove = true;
+            return false;
+        }
+        touchedSlots[index] &= ~bitMask;
+        deadlineTicks[newSlot] = deadlineTick;
+        if (exactDeadlines != null) {
+            exactDeadlines[newSlot] = exactDeadlines[slot];
+            if (Math.max(deadlineTick, currentTick) == stagedTick) {
+                pushStaged(newSlot);
+            }
+        }
+        if (parked) {
+            //moved on again when the bucket it waits in comes due
+            touchedSlots[newSlot / Long.SIZE] |= 1L << (newSlot & (Long.SIZE - 1));
+        } else {
+            touchedSlots[newSlot / Long.SIZE] &= ~(1L << (newSlot & (Long.SIZE - 1)));
+        }
+        //the freed slot takes the id the new one held
+        final int timerId = slotIds[slot];
+        final int freeId = slotIds[newSlot];
+        slotIds[newSlot] = timerId;
+        idSlots[timerId] = newSlot;
+        slotIds[slot] = freeId;
+        idSlots[freeId] = slot;
+        timerWheel.set(index, timerWheel.get(index) & ~bitMask);
+        return true;
+    }
+
+    /**
+     * allocate a slot for a moving timer, if its bucket and the spill pool are full it is delayed to the next
+     * bucket with a free slot on the same level, then to a later bucket of a coarser level, it never fires early
+     * a deadline beyond the wheel, eg. a periodic timer re-armed by a poll catching up on a stall, is parked
+     * in the furthest bucket
+     * @return slot or -1 if every bucket after the deadline is full
+     */
+    private int relocate(long deadlineTick, int level) {
+        //a timer delayed by a full bucket may already be due, drain it with the current tick
+        final long tick = Math.max(deadlineTick, currentTick);
+        for (int at = level; at < levels; at++) {
+            final int shift = at * wheelBits;
+            final long current = currentTick >> shift;
+            //a coarser bucket is cascaded when it starts, the one in progress already was
+            final long fromTick = at == level ? Math.min(tick >> shift, current + maxRange - 1)
+                    : Math.max(tick >> shift, current + 1);
+            for (long levelTick = fromTick; levelTick - current < maxRange; levelTick++) {
+                final int slot = allocateSlot(at, levelTick);
+                if (slot >= 0) {
+                    return slot;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int expireTimersAt(int bucketIndex, AttachmentHandler handler, long now) {
+        //cleared first, a timer scheduled into this bucket by the handler marks it again
+        clearOccupied(bucketIndex);
+        deferredMove = false;
+        if (exactDeadlines != null) {
+            return expirePassedTick(bucketIndex, handler, now);
+        }
+        int count = 0;
+        final int longPerBucket = longPerBucket();
+        final int startIndex = bucketIndex * longPerBucket;
+        for (int index = startIndex; index < startIndex + longPerBucket; index++) {
+            count += expireWord(index, handler, now);
+        }
+        if (spillHeads != null && spillHeads[bucketIndex] != NO_SPILL) {
+            //drain spilled timers in the same pass
+            for (int index = spillHeads[bucketIndex]; index != NO_SPILL; index = spillNext[index - spillBase]) {
+                count += expireWord(index, handler, now);
+            }
+            releaseEmptySpill(bucketIndex);
+        }
+        if (deferredMove || (expiryBudget == 0 && bucketHasTimers(bucketIndex))) {
+            markOccupied(bucketIndex); //stopped part way or a move deferred, resumed by a later poll
+        }
+        return count;
+    }
+
+    private int expireWord(int index, AttachmentHandler handler, long now) {
+        long pending = timerWheel.get(index);
+        int count = 0;
+        while (pending != EMPTY_BITSET && expiryBudget > 0) {
+            final short bitIndex = (short) Long.numberOfTrailingZeros(pending);
+            final long bitMask = 1L << bitIndex;
+            pending &= pending - 1;
+            final long bitSet = timerWheel.get(index);
+            if ((bitSet & bitMask) == 0L) {
+                continue; //cancelled by a handler earlier in this pass
+            }
+            //read live, a handler earlier in this pass may have pushed it
+            if (touchedSlots != null && (touchedSlots[index] & bitMask) != 0L
+                    && deadlineTicks[getSlot(index, bitIndex)] > currentTick) {
+                cascadeSlot(index, bitIndex); //deadline was pushed forward, move it keeping its id
+                continue;
+            }
+            expireSlot(index, bitSet, bitMask, getSlot(index, bitIndex), handler, now);
+            count++;
+        }
+        return count;
+    }
+
+    private void expireSlot(int index, long bitSet, long bitMask, int slot, AttachmentHandler handler, long now) {
+        final int timerId = idOf(slot);
+        if (periodics != null && periodics[timerId * PERIODIC_FIELDS + PERIOD] != 0L) {
+            //moved before the handler runs, which may cancel or reschedule it
+            rearm(index, slot, timerId, now);
+        } else {
+            timerWheel.set(index, bitSet & ~bitMask); //clear the bit to cancel timeout
+            if (groups != null) {
+                leaveGroup(timerId);
+            }
+            activeTimers--;
+        }
+        expiryBudget--;
+        final long attachment = attachments == null ? 0L : attachments[timerId];
+        if (batch != null) {
+            batch.onTimeout(timeUnit, now, timerId, attachment);
+        } else {
+            handler.onTimeout(timeUnit, now, timerId, attachment);
+        }
+    }
+
+    /**
+     * move periodic @timerId living in @slot to its next deadline after @now, a fixed rate timer behind by
+     * more than a period fires once and skips the periods missed, they are counted in its MISSED_PERIODS
+     */
+    private void rearm(int index, int slot, int timerId, long now) {
+        final int fields = timerId * PERIODIC_FIELDS;
+        final long period = periodics[fields + PERIOD];
+        final long deadline = periodics[fields + PERIODIC_DEADLINE];
+        long next;
+        long missed = 0;
+        if (period > 0) {
+            next = deadline + period;
+            if (next - now <= 0) {
+                missed = (now - deadline) / period;
+                next = deadline + (missed + 1) * period;
+            }
+        } else {
+            next = now - period;
+        }
+        periodics[fields + PERIODIC_DEADLINE] = next;
+        periodics[fields + MISSED_PERIODS] = missed;
+        if (exactDeadlines != null) {
+            exactDeadlines[slot] = next;
+        }
+        cascadeSlot(index, (short) (slot & (Long.SIZE - 1)), (next - startTime) >> tickGranularityBits);
+    }
+
+    /**
+     * precise mode, @currentTick has passed, move its pushed timers on then fire the rest in deadline order
+     * timers that reached the bucket without being staged, eg. delayed into it by a full bucket, are staged again
+     */
+    private int expirePassedTick(int bucketIndex, AttachmentHandler handler, long now) {
+        int count = 0;
+        boolean restaged = false;
+        while (true) {
+            if (touchedSlots != null) {
+                final int startIndex = bucketIndex * longPerBucket();
+                for (int index = startIndex; index < startIndex + longPerBucket(); index++) {
+                    cascadePushed(index);
+                }
+                if (spillHeads != null) {
+                    for (int index = spillHeads[bucketIndex]; index != NO_SPILL; index = spillNext[index - spillBase]) {
+                        cascadePushed(index);
+                    }
+                }
+            }
+            final int fired = expireStaged(bucketIndex, currentTick, handler, now, Long.MAX_VALUE);
+            count += fired;
+            if (expiryBudget == 0 || !bucketHasTimers(bucketIndex) || (restaged && fired == 0)) {
+                break;
+            }
+            stagedTick = -1;
+            restaged = true;
+        }
+        if (spillHeads != null && spillHeads[bucketIndex] != NO_SPILL) {
+            releaseEmptySpill(bucketIndex);
+        }
+        if (deferredMove || (expiryBudget == 0 && bucketHasTimers(bucketIndex))) {
+            markOccupied(bucketIndex); //stopped part way or a move deferred, resumed by a later poll
+        }
+        return count;
+    }
+
+    private void cascadePushed(int index) {
+        for (long pending = touchedSlots[index] & timerWheel.get(index); pending != EMPTY_BITSET; pending &= pending - 1) {
+            final short bitIndex = (short) Long.numberOfTrailingZeros(pending);
+            if (deadlineTicks[getSlot(index, bitIndex)] > currentTick) {
+                cascadeSlot(index, bitIndex);
+            }
+        }
+    }
+
+    /**
+     * fire staged timers of @tick in deadline order while their offset in the tick is at most @maxOffset
+     */
+    private int expireStaged(int bucketIndex, long tick, AttachmentHandler handler, long now, long maxOffset) {
+        if (stagedTick != tick) {
+            stage(bucketIndex, tick);
+        }
+        int count = 0;
+        final int slotMask = (1 << slotBits) - 1;
+        while (expiryBudget > 0) {
+            final long key;
+            final boolean pushed = pushedCount > 0
+                    && (stagedNext == stagedCount || pushedKeys[0] >>> slotBits < stagedKeys[stagedNext] >>> slotBits);
+            if (pushed) {
+                key = pushedKeys[0];
+            } else if (stagedNext < stagedCount) {
+                key = stagedKeys[stagedNext];
+            } else {
+                break;
+            }
+            if ((key >>> slotBits) > maxOffset) {
+                break;
+            }
+            if (pushed) {
+                popPushed();
+            } else {
+                stagedNext++;
+            }
+            final int slot = (int) key & slotMask;
+            final int index = slot / Long.SIZE;
+            final long bitMask = 1L << (slot & (Long.SIZE - 1));
+            if ((timerWheel.get(index) & bitMask) == 0L || stagedOffset(slot, tick) != key >>> slotBits
+                    || (deadlineTicks != null && deadlineTicks[slot] > tick)) {
+                continue; //cancelled or moved since it was staged
+            }
+            expireSlot(index, timerWheel.get(index), bitMask, slot, handler, now);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * gather the live timers of @bucketIndex due in @tick and sort them by deadline, timers pushed to a
+     * later tick are left to be moved when it passes
+     */
+    private void stage(int bucketIndex, long tick) {
+        stagedTick = tick;
+        stagedNext = 0;
+        stagedCount = 0;
+        pushedCount = 0;
+        final int startIndex = bucketIndex * longPerBucket();
+        for (int index = startIndex; index < startIndex + longPerBucket(); index++) {
+            stageWord(index, tick);
+        }
+        if (spillHeads != null) {
+            for (int index = spillHeads[bucketIndex]; index != NO_SPILL; index = spillNext[index - spillBase]) {
+                stageWord(index, tick);
+            }
+        }
+        sortStaged();
+    }
+
+    /**
+     * lsd radix sort of the staged keys on their offset, a byte at a time, linear in the bucket size
+     * where comparison sorting a crowded bucket every tick would dominate the poll
+     */
+    private void sortStaged() {
+        if (stagedCount < Long.SIZE) {
+            Arrays.sort(stagedKeys, 0, stagedCount);
+            return;
+        }
+        if (stagedScratch == null || stagedScratch.length < stagedKeys.length) {
+            stagedScratch = new long[stagedKeys.length];
+        }
+        final int[] counts = radixCounts;
+        for (int shift = 0; shift < tickGranularityBits; shift += Byte.SIZE) {
+            final int digitShift = slotBits + shift;
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < stagedCount; i++) {
+                counts[(int) (stagedKeys[i] >>> digitShift) & 0xFF]++;
+            }
+            if (counts[(int) (stagedKeys[0] >>> digitShift) & 0xFF] == stagedCount) {
+                continue; //every key shares this digit
+            }
+            int position = 0;
+            for (int digit = 0; digit < counts.length; digit++) {
+                final int count = counts[digit];
+                counts[digit] = position;
+                position += count;
+            }
+            for (int i = 0; i < stagedCount; i++) {
+                final long key = stagedKeys[i];
+                stagedScratch[counts[(int) (key >>> digitShift) & 0xFF]++] = key;
+            }
+            final long[] sorted = stagedScratch;
+            stagedScratch = stagedKeys;
+            stagedKeys = sorted;
+        }
+    }
+
+    private void stageWord(int index, long tick) {
+        for (long pending = timerWheel.get(index); pending != EMPTY_BITSET; pending &= pending - 1) {
+            final int slot = getSlot(index, (short) Long.numberOfTrailingZeros(pending));
+            if (deadlineTicks != null && deadlineTicks[slot] > tick) {
+                continue;
+            }
+            if (stagedCount == stagedKeys.length) {
+                stagedKeys = Arrays.copyOf(stagedKeys, stagedCount * 2);
+            }
+            stagedKeys[stagedCount++] = stagedOffset(slot, tick) << slotBits | slot;
+        }
+    }
+
+    /**
+     * offset of the deadline of @slot in @tick, timers delayed past their tick by a full bucket are already
+     * due and go first, in no particular order among themselves
+     */
+    private long stagedOffset(int slot, long tick) {
+        return Math.min(Math.max(exactDeadlines[slot] - tickStart(tick), 0L), (1L << tickGranularityBits) - 1);
+    }
+
+    private void pushStaged(int slot) {
+        if (pushedCount == pushedKeys.length) {
+            pushedKeys = Arrays.copyOf(pushedKeys, pushedCount * 2);
+        }
+        final long key = stagedOffset(slot, stagedTick) << slotBits | slot;
+        int child = pushedCount++;
+        while (child > 0) {
+            final int parent = (child - 1) >>> 1;
+            if (pushedKeys[parent] >>> slotBits <= key >>> slotBits) {
+                break;
+            }
+            pushedKeys[child] = pushedKeys[parent];
+            child = parent;
+        }
+        pushedKeys[child] = key;
+    }
+
+    private void popPushed() {
+        final long key = pushedKeys[--pushedCount];
+        int parent = 0;
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= pushedCount) {
+                break;
+            }
+            if (child + 1 < pushedCount && pushedKeys[child + 1] >>> slotBits < pushedKeys[child] >>> slotBits) {
+                child++;
+            }
+            if (key >>> slotBits <= pushedKeys[child] >>> slotBits) {
+                break;
+            }
+            pushedKeys[parent] = pushedKeys[child];
+            parent = child;
+        }
+        pushedKeys[parent] = key;
+    }
+
+    private long tickStart(long tick) {
+        return startTime + (tick << tickGranularityBits);
+    }
+
+    @Override
+    public boolean cancelTimer(int timeoutId) {
+        if (timeoutId < 0 || timeoutId >= timerWheel.length() * Long.SIZE) {
+            return false;
+        }
+        if (clearBit(slotOf(timeoutId), timerWheel)) {
+            if (groups != null) {
+                leaveGroup(timeoutId);
+            }
+            activeTimers--;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean clearBit(int timeoutId, BitsetStorage timerWheel) {
+        int bitSlot = timeoutId / Long.SIZE;
+        int bitMask = timeoutId & (Long.SIZE-1);
+        long set = timerWheel.get(bitSlot);
+        boolean isSet = (set & (1L << bitMask)) != 0;
+        if (isSet) { //already expired or cancelled otherwise
+            timerWheel.set(bitSlot, set & ~(1L << bitMask));
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * move the deadline of a live timer keeping its id
+     * a later deadline is only recorded, the timer is moved when the bucket it sits in comes due, so pushing
+     * an idle timeout forward on every message is a few array stores, an earlier deadline moves it now
+     * @return false if the timer is not live or @deadline is out of range or, as scheduleTimeout, in a tick
+     * already passed
+     */
+    @Override
+    public boolean rescheduleTimeout(int timeoutId, long deadline) {
+        if (timeoutId < 0 || timeoutId >= timerIdLimit() || deadline - startTime <= 0) {
+            return false;
+        }
+        final long deadlineTick = (deadline - startTime) >> tickGranularityBits;
+        if (deadlineTick < currentTick || levelFor(deadlineTick) >= levels) {
+            return false;
+        }
+        if (deadlineTicks == null) {
+            allocateRelocation();
+        }
+        if (!isLive(timeoutId)) {
+            return false;
+        }
+        final int slot = slotOf(timeoutId);
+        final long currentDeadlineTick = deadlineTicks[slot];
+        final long currentDeadline = exactDeadlines == null ? 0L : exactDeadlines[slot];
+        deadlineTicks[slot] = deadlineTick;
+        final boolean periodic = periodics != null && periodics[timeoutId * PERIODIC_FIELDS + PERIOD] != 0L;
+        final long periodicDeadline = periodic ? periodics[timeoutId * PERIODIC_FIELDS + PERIODIC_DEADLINE] : 0L;
+        if (periodic) {
+            //later periods follow on from the moved one
+            periodics[timeoutId * PERIODIC_FIELDS + PERIODIC_DEADLINE] = deadline;
+        }
+        if (exactDeadlines != null) {
+            exactDeadlines[slot] = deadline;
+            if (deadlineTick == stagedTick && deadlineTick == currentDeadlineTick) {
+                pushStaged(slot);
+            }
+        }
+        if (deadlineTick > currentDeadlineTick) {
+            touchedSlots[slot / Long.SIZE] |= 1L << (slot & (Long.SIZE - 1));
+        } else if (deadlineTick < currentDeadlineTick && !cascadeSlot(slot / Long.SIZE, (short) (slot & (Long.SIZE - 1)))) {
+            //no free slot before the bucket it is in, it keeps its deadline
+            deferredMove = false;
+            deadlineTicks[slot] = currentDeadlineTick;
+            if (periodic) {
+                periodics[timeoutId * PERIODIC_FIELDS + PERIODIC_DEADLINE] = periodicDeadline;
+            }
+            if (exactDeadlines != null) {
+                exactDeadlines[slot] = currentDeadline;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * per slot relocation state, timers already scheduled get the tick their bucket comes due as deadline
+     */
+    private void allocateRelocation() {
+        deadlineTicks = new long[timerIdLimit()];
+        slotIds = new int[timerIdLimit()];
+        idSlots = new int[timerIdLimit()];
+        for (int slot = 0; slot < timerIdLimit(); slot++) {
+            slotIds[slot] = slot;
+            idSlots[slot] = slot;
+        }
+        touchedSlots = new long[timerWheel.length()];
+        if (activeTimers == 0) {
+            return;
+        }
+        for (int bucketIndex = 0; bucketIndex <= bucketMask(); bucketIndex++) {
+            final long tick = currentTick + ((bucketIndex - currentTick) & bucketMask());
+            final int startIndex = bucketIndex * longPerBucket();
+            for (int index = startIndex; index < startIndex + longPerBucket(); index++) {
+                fillDeadlineTicks(index, tick);
+            }
+            if (spillHeads != null) {
+                for (int index = spillHeads[bucketIndex]; index != NO_SPILL; index = spillNext[index - spillBase]) {
+                    fillDeadlineTicks(index, tick);
+                }
+            }
+        }
+    }
+
+    private void fillDeadlineTicks(int index, long tick) {
+        for (long pending = timerWheel.get(index); pending != EMPTY_BITSET; pending &= pending - 1) {
+            deadlineTicks[getSlot(index, (short) Long.numberOfTrailingZeros(pending))] = tick;
+        }
+    }
+
+    public int schedulePeriodic(long firstDeadline, long period) {
+        return schedulePeriodic(firstDeadline, period, true, 0L);
+    }
+
+    /**
+     * a timer that fires at @firstDeadline then every @period, re-armed by the wheel as it fires so it keeps
+     * its id, attachment and handle until cancelled
+     * fixed rate deadlines are firstDeadline + n * period, after a stall the timer fires once and skips the
+     * periods it missed, see {@link #missedPeriods(int)}, fixed delay deadlines are @period after the poll
+     * that fired it
+     * @return timer id or one of the ERR_* codes, as scheduleTimeout
+     */
+    public int schedulePeriodic(long firstDeadline, long period, boolean fixedRate, long attachment) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive " + period);
+        }
+        if (periodics == null) {
+            if (deadlineTicks == null) {
+                allocateRelocation();
+            }
+            allocatePeriodic();
+        }
+        final int timerId = scheduleTimeout(firstDeadline, attachment);
+        if (timerId >= 0) {
+            final int fields = timerId * PERIODIC_FIELDS;
+            periodics[fields + PERIOD] = fixedRate ? period : -period;
+            periodics[fields + PERIODIC_DEADLINE] = firstDeadline;
+            periodics[fields + MISSED_PERIODS] = 0L;
+        }
+        return timerId;
+    }
+
+    private void allocatePeriodic() {
+        periodics = new long[timerIdLimit() * PERIODIC_FIELDS];
+    }
+
+    /**
+     * periods periodic @timerId skipped on its last expiry, eg. read from the handler, 0 if it fired on time
+     */
+    public int missedPeriods(int timerId) {
+        if (periodics == null || timerId < 0 || timerId >= timerIdLimit()) {
+            return 0;
+        }
+        return (int) Math.min(periodics[timerId * PERIODIC_FIELDS + MISSED_PERIODS], Integer.MAX_VALUE);
+    }
+
+    /**
+     * enable timer groups 0 .. @groupCount - 1, a group is cancelled or expired in time proportional to its size
+     * with no per timer bookkeeping by the caller, eg. every timer of a session on disconnect
+     */
+    public void timerGroups(int groupCount) {
+        if (groupCount < 1) {
+            throw new IllegalArgumentException("groupCount must be at least 1 " + groupCount);
+        }
+        if (groupHeads != null) {
+            throw new IllegalStateException("timer groups already enabled " + (groupHeads.length - 1));
+        }
+        allocateGroups();
+        allocateGroupChains(groupCount);
+    }
+
+    private void allocateGroups() {
+        groups = new int[timerIdLimit() * GROUP_FIELDS];
+        for (int timerId = 0; timerId < timerIdLimit(); timerId++) {
+            groups[timerId * GROUP_FIELDS + GROUP] = NO_GROUP;
+        }
+    }
+
+    /**
+     * chain every timer whose GROUP is set, eg. read from a snapshot
+     */
+    private void allocateGroupChains(int groupCount) {
+        groupHeads = new int[groupCount + 1];
+        Arrays.fill(groupHeads, NO_TIMER);
+        for (int timerId = 0; timerId < timerIdLimit(); timerId++) {
+            final int groupId = groups[timerId * GROUP_FIELDS + GROUP];
+            if (groupId != NO_GROUP) {
+                groups[timerId * GROUP_FIELDS + GROUP] = NO_GROUP;
+                joinGroup(timerId, groupId);
+            }
+        }
+    }
+
+    /**
+     * schedule a timer in group @groupId, it leaves the group when it expires or is cancelled
+     * @return timer id or one of the ERR_* codes, as scheduleTimeout
+     */
+    public int scheduleTimeout(long deadline, long attachment, int groupId) {
+        checkGroup(groupId);
+        final int timerId = scheduleTimeout(deadline, attachment);
+        if (timerId >= 0) {
+            joinGroup(timerId, groupId);
+        }
+        return timerId;
+    }
+
+    /**
+     * move live @timerId into group @groupId, eg. a periodic timer, out of the group it was in
+     * @return false if the timer is not live
+     */
+    public boolean addToGroup(int timerId, int groupId) {
+        checkGroup(groupId);
+        if (!isLive(timerId)) {
+            return false;
+        }
+        joinGroup(timerId, groupId);
+        return true;
+    }
+
+    /**
+     * cancel every timer of @groupId
+     * @return number of timers cancelled
+     */
+    public int cancelGroup(int groupId) {
+        checkGroup(groupId);
+        int cancelled = 0;
+        for (int timerId = groupHeads[groupId]; timerId != NO_TIMER; timerId = groupHeads[groupId]) {
+            leaveGroup(timerId);
+            if (cancelTimer(timerId)) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * fire every timer of @groupId now, in no particular order, eg. the timeouts of a closed session run their
+     * clean up. periodic timers fire once and stop, timers a handler schedules into the group stay. not re-entrant
+     * @return number of timers expired
+     */
+    public int expireGroup(int groupId, long now, AttachmentHandler handler) {
+        checkGroup(groupId);
+        final int draining = groupHeads.length - 1;
+        if (groupHeads[draining] != NO_TIMER) {
+            throw new IllegalStateException("expireGroup is not re-entrant " + groupId);
+        }
+        //a handler cancelling a member not fired yet unlinks it from the draining chain
+        groupHeads[draining] = groupHeads[groupId];
+        groupHeads[groupId] = NO_TIMER;
+        for (int timerId = groupHeads[draining]; timerId != NO_TIMER; timerId = groups[timerId * GROUP_FIELDS + GROUP_NEXT]) {
+            groups[timerId * GROUP_FIELDS + GROUP] = draining;
+        }
+        int expired = 0;
+        try {
+            for (int timerId = groupHeads[draining]; timerId != NO_TIMER; timerId = groupHeads[draining]) {
+                final long attachment = attachments == null ? 0L : attachments[timerId];
+                leaveGroup(timerId);
+                if (cancelTimer(timerId)) {
+                    expired++;
+                    handler.onTimeout(timeUnit, now, timerId, attachment);
+                }
+            }
+        } finally {
+            //a throwing handler leaves the rest in the group
+            for (int timerId = groupHeads[draining]; timerId != NO_TIMER; timerId = groupHeads[draining]) {
+                joinGroup(timerId, groupId);
+            }
+        }
+        return expired;
+    }
+
+    private void checkGroup(int groupId) {
+        if (groupHeads == null) {
+            throw new IllegalStateException("timer groups not enabled");
+        }
+        if (groupId < 0 || groupId >= groupHeads.length - 1) {
+            throw new IllegalArgumentException("no timer group " + groupId);
+        }
+    }
+
+    private void joinGroup(int timerId, int groupId) {
+        leaveGroup(timerId);
+        final int fields = timerId * GROUP_FIELDS;
+        final int head = groupHeads[groupId];
+        groups[fields + GROUP] = groupId;
+        groups[fields + GROUP_NEXT] = head;
+        groups[fields + GROUP_PREV] = NO_TIMER;
+        if (head != NO_TIMER) {
+            groups[head * GROUP_FIELDS + GROUP_PREV] = timerId;
+        }
+        groupHeads[groupId] = timerId;
+    }
+
+    private void leaveGroup(int timerId) {
+        final int fields = timerId * GROUP_FIELDS;
+        final int groupId = groups[fields + GROUP];
+        if (groupId == NO_GROUP) {
+            return;
+        }
+        final int next = groups[fields + GROUP_NEXT];
+        final int prev = groups[fields + GROUP_PREV];
+        if (prev == NO_TIMER) {
+            groupHeads[groupId] = next;
+        } else {
+            groups[prev * GROUP_FIELDS + GROUP_NEXT] = next;
+        }
+        if (next != NO_TIMER) {
+            groups[next * GROUP_FIELDS + GROUP_PREV] = prev;
+        }
+        groups[fields + GROUP] = NO_GROUP;
+    }
+
+    /**
+     * @timerId was handed out and is scheduled
+     */
+    private boolean isLive(int timerId) {
+        if (timerId < 0 || timerId >= timerIdLimit()) {
+            return false;
+        }
+        final int slot = slotOf(timerId);
+        return (timerWheel.get(slot / Long.SIZE) & (1L << (slot & (Long.SIZE - 1)))) != 0L;
+    }
+
+    /**
+     * precise mode, timers still wait in the bucket of their tick, when a bucket comes due its timers are
+     * sorted by deadline and fired in that order, those of the tick now falls in as soon as now reaches
+     * their deadline rather than when the tick ends, so a coarse tick keeps sub tick accuracy
+     * must be enabled before the first timer is scheduled
+     */
+    public void preciseDeadlines() {
+        if (activeTimers != 0) {
+            throw new IllegalStateException("precise deadlines must be enabled before scheduling " + activeTimers);
+        }
+        allocatePrecise();
+    }
+
+    private void allocatePrecise() {
+        final int bits = Integer.SIZE - Integer.numberOfLeadingZeros(timerIdLimit() - 1);
+        if (tickGranularityBits + bits >= Long.SIZE) {
+            throw new IllegalArgumentException("tick granularity too large for precise deadlines " + (1L << tickGranularityBits));
+        }
+        exactDeadlines = new long[timerIdLimit()];
+        slotBits = bits;
+        stagedKeys = new long[Math.max(timerPerTick, Long.SIZE)];
+        pushedKeys = new long[Long.SIZE];
+        radixCounts = new int[1 << Byte.SIZE];
+    }
+
+    public long scheduleTimeoutHandle(long deadline) {
+        return scheduleTimeoutHandle(deadline, 0L);
+    }
+
+    /**
+     * schedule in handle mode
+     * @return handle combining timer id and slot generation, or one of the ERR_* codes
+     */
+    public long scheduleTimeoutHandle(long deadline, long attachment) {
+        if (generations == null) {
+            generations = new short[timerWheel.length() * Long.SIZE];
+        }
+        final int timerId = scheduleTimeout(deadline, attachment);
+        if (timerId < 0) {
+            return timerId;
+        }
+        return timerHandle(timerId);
+    }
+
+    /**
+     * cancel by handle, a no-op returning false when the timer already fired or its slot was reused
+     */
+    public boolean cancelHandle(long handle) {
+        final int timerId = handleTimerId(handle);
+        if (handle < 0 || generations == null || timerId >= generations.length) {
+            return false;
+        }
+        if (generations[timerId] != (short) (handle >>> HANDLE_GENERATION_SHIFT)) {
+            return false;
+        }
+        return cancelTimer(timerId);
+    }
+
+    /**
+     * current handle of a live timer id, eg. to correlate a handle from within the expiry handler
+     */
+    public long timerHandle(int timerId) {
+        final long generation = generations == null ? 0L : generations[timerId] & 0xFFFFL;
+        return (generation << HANDLE_GENERATION_SHIFT) | timerId;
+    }
+
+    public static int handleTimerId(long handle) {
+        return (int) handle;
+    }
+
+    /*
+     * snapshot format, big endian
+     * header: magic, version, timeUnit ordinal, startTime, tickGranularity, maxTimeoutDuration,
+     *         timerPerTick, levels, spillWords, currentTick, activeTimers, flags
+     * words:  count of non empty words, then per word: index, bits [, touched bits]
+     * slots:  per set bit of those words in order [deadline tick, timer id] [attachment] [exact deadline]
+     *         [period, periodic deadline] [group], the ids of free slots are not kept
+     * version 3 and before kept a moved timer's home slot set, with reserved and moved-in bits per word and
+     * a slot link per set bit
+     * spill:  free head, bucket heads, word links (when a pool is configured)
+     * generations of every slot (when handle mode was used)
+     * group count (when groups are enabled), the group chains are rebuilt on read
+     */
+
+    /**
+     * @return bytes needed by {@link #writeSnapshot(ByteBuffer)}
+     */
+    public int snapshotSize() {
+        final boolean relocating = slotIds != null;
+        final int perSlot = (relocating ? Long.BYTES + Integer.BYTES : 0) + (attachments != null ? Long.BYTES : 0)
+                + (exactDeadlines != null ? Long.BYTES : 0) + (periodics != null ? 2 * Long.BYTES : 0)
+                + (groups != null ? Integer.BYTES : 0);
+        long size = SNAPSHOT_HEADER_SIZE + Integer.BYTES;
+        for (int index = 0; index < timerWheel.length(); index++) {
+            final long bitSet = timerWheel.get(index);
+            if (bitSet != EMPTY_BITSET) {
+                size += Integer.BYTES + Long.BYTES + (relocating ? Long.BYTES : 0);
+                size += (long) Long.bitCount(bitSet) * perSlot;
+            }
+        }
+        if (spillHeads != null) {
+            size += Integer.BYTES * (1L + spillHeads.length + spillNext.length);
+        }
+        if (generations != null) {
+            size += (long) Short.BYTES * generations.length;
+        }
+        if (groups != null) {
+            size += Integer.BYTES;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("snapshot too large " + size);
+        }
+        return (int) size;
+    }
+
+    /**
+     * write pending timers and wheel position to @buffer, only non empty words and occupied slots are written
+     */
+    public void writeSnapshot(ByteBuffer buffer) {
+        final boolean relocating = slotIds != null;
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putInt(SNAPSHOT_VERSION);
+        buffer.putInt(timeUnit.ordinal());
+        buffer.putLong(startTime);
+        buffer.putLong(1L << tickGranularityBits);
+        buffer.putLong(maxTimeoutDuration);
+        buffer.putInt(timerPerTick);
+        buffer.putInt(levels);
+        buffer.putInt(timerWheel.length() - spillBase);
+        buffer.putLong(currentTick);
+        buffer.putInt(activeTimers);
+        buffer.put((byte) ((attachments != null ? SNAPSHOT_ATTACHMENTS : 0) | (generations != null ? SNAPSHOT_GENERATIONS : 0)
+                | (relocating ? SNAPSHOT_RELOCATION : 0) | (exactDeadlines != null ? SNAPSHOT_PRECISE : 0)
+                | (periodics != null ? SNAPSHOT_PERIODIC : 0) | (groups != null ? SNAPSHOT_GROUPS : 0)));
+
+        int nonEmptyWords = 0;
+        for (int index = 0; index < timerWheel.length(); index++) {
+            if (timerWheel.get(index) != EMPTY_BITSET) {
+                nonEmptyWords++;
+            }
+        }
+        buffer.putInt(nonEmptyWords);
+        for (int index = 0; index < timerWheel.length(); index++) {
+            final long bitSet = timerWheel.get(index);
+            if (bitSet == EMPTY_BITSET) continue;
+            buffer.putInt(index);
+            buffer.putLong(bitSet);
+            if (relocating) {
+                buffer.putLong(touchedSlots[index]);
+            }
+            for (long pending = bitSet; pending != EMPTY_BITSET; pending &= pending - 1) {
+                final int slot = getSlot(index, (short) Long.numberOfTrailingZeros(pending));
+                final int timerId = idOf(slot);
+                if (relocating) {
+                    buffer.putLong(deadlineTicks[slot]);
+                    buffer.putInt(timerId);
+                }
+                if (attachments != null) {
+                    buffer.putLong(attachments[timerId]);
+                }
+                if (exactDeadlines != null) {
+                    buffer.putLong(exactDeadlines[slot]);
+                }
+                if (periodics != null) {
+                    buffer.putLong(periodics[timerId * PERIODIC_FIELDS + PERIOD]);
+                    buffer.putLong(periodics[timerId * PERIODIC_FIELDS + PERIODIC_DEADLINE]);
+                }
+                if (groups != null) {
+                    //timers being drained by expireGroup are saved out of any group
+                    final int groupId = groups[timerId * GROUP_FIELDS + GROUP];
+                    buffer.putInt(groupId == groupHeads.length - 1 ? NO_GROUP : groupId);
+                }
+            }
+        }
+        if (spillHeads != null) {
+            buffer.putInt(freeSpill);
+            for (int head : spillHeads) {
+                buffer.putInt(head);
+            }
+            for (int next : spillNext) {
+                buffer.putInt(next);
+            }
+        }
+        if (generations != null) {
+            for (short generation : generations) {
+                buffer.putShort(generation);
+            }
+        }
+        if (groups != null) {
+            buffer.putInt(groupHeads.length - 1);
+        }
+    }
+
+    public static BitsetTimeWheel readSnapshot(ByteBuffer buffer) {
+        return readSnapshot(buffer, BitsetStorage::heap);
+    }
+
+    /**
+     * rebuild a wheel from {@link #writeSnapshot(ByteBuffer)}, it resumes at the saved tick so the first
+     * pollTimeouts fires every timer whose deadline passed while it was down
+     */
+    public static BitsetTimeWheel readSnapshot(ByteBuffer buffer, IntFunction<BitsetStorage> storageFactory) {
+        if (buffer.getInt() != SNAPSHOT_MAGIC) {
+            throw new IllegalArgumentException("not a timer wheel snapshot");
+        }
+        final int version = buffer.getInt();
+        if (version < 1 || version > SNAPSHOT_VERSION) {
+            throw new IllegalArgumentException("unsupported snapshot version " + version);
+        }
+        final TimeUnit timeUnit = TimeUnit.values()[buffer.getInt()];
+        final long startTime = buffer.getLong();
+        final long tickGranularity = buffer.getLong();
+        final long maxTimeoutDuration = buffer.getLong();
+        final int timerPerTick = buffer.getInt();
+        final int levels = buffer.getInt();
+        final int spillWords = buffer.getInt();
+        //requested duration that sizes the wheel back to exactly maxTimeoutDuration
+        final BitsetTimeWheel wheel = new BitsetTimeWheel(timeUnit, startTime, tickGranularity,
+                maxTimeoutDuration - 1 - tickGranularity, timerPerTick, levels, spillWords * Long.SIZE, storageFactory);
+        wheel.currentTick = buffer.getLong();
+        wheel.activeTimers = buffer.getInt();
+        final byte flags = buffer.get();
+        if ((flags & ~SNAPSHOT_KNOWN_FLAGS) != 0) {
+            throw new IllegalArgumentException("unsupported snapshot flags " + flags);
+        }
+        if ((flags & SNAPSHOT_ATTACHMENTS) != 0) {
+            wheel.attachments = new long[wheel.timerIdLimit()];
+        }
+        if ((flags & SNAPSHOT_GENERATIONS) != 0) {
+            wheel.generations = new short[wheel.timerIdLimit()];
+        }
+        //version 1 had relocation state only on cascading wheels and no touched slots
+        final boolean relocating = version == 1 ? levels > 1 : (flags & SNAPSHOT_RELOCATION) != 0;
+        if (relocating && wheel.slotIds == null) {
+            wheel.allocateRelocation();
+        }
+        //version 3 and before, reserved home slots of moved timers and their links
+        final long[] reservedSlots = relocating && version < 4 ? new long[wheel.timerWheel.length()] : null;
+        final int[] slotLinks = reservedSlots == null ? null : new int[wheel.timerIdLimit()];
+        if (relocating && reservedSlots == null) {
+            Arrays.fill(wheel.slotIds, NO_TIMER);
+            Arrays.fill(wheel.idSlots, NO_TIMER);
+        }
+        if ((flags & SNAPSHOT_PRECISE) != 0) {
+            wheel.allocatePrecise();
+        }
+        if ((flags & SNAPSHOT_PERIODIC) != 0) {
+            wheel.allocatePeriodic();
+        }
+        if ((flags & SNAPSHOT_GROUPS) != 0) {
+            wheel.allocateGroups();
+        }
+        final int nonEmptyWords = buffer.getInt();
+        for (int i = 0; i < nonEmptyWords; i++) {
+            final int index = buffer.getInt();
+            final long bitSet = buffer.getLong();
+            wheel.timerWheel.set(index, bitSet);
+            if (relocating) {
+                if (reservedSlots != null) {
+                    reservedSlots[index] = buffer.getLong();
+                    buffer.getLong(); //moved-in bits, the links tell the same
+                }
+                if (version > 1) {
+                    wheel.touchedSlots[index] = buffer.getLong();
+                }
+            }
+            for (long pending = bitSet; pending != EMPTY_BITSET; pending &= pending - 1) {
+                final int slot = wheel.getSlot(index, (short) Long.numberOfTrailingZeros(pending));
+                int timerId = slot;
+                if (relocating) {
+                    wheel.deadlineTicks[slot] = buffer.getLong();
+                    if (slotLinks != null) {
+                        slotLinks[slot] = buffer.getInt();
+                    } else {
+                        timerId = buffer.getInt();
+                        wheel.slotIds[slot] = timerId;
+                        wheel.idSlots[timerId] = slot;
+                    }
+                }
+                if (wheel.attachments != null) {
+                    wheel.attachments[timerId] = buffer.getLong();
+                }
+                if (wheel.exactDeadlines != null) {
+                    wheel.exactDeadlines[slot] = buffer.getLong();
+                }
+                if (wheel.periodics != null) {
+                    wheel.periodics[timerId * PERIODIC_FIELDS + PERIOD] = buffer.getLong();
+                    wheel.periodics[timerId * PERIODIC_FIELDS + PERIODIC_DEADLINE] = buffer.getLong();
+                }
+                if (wheel.groups != null) {
+                    wheel.groups[timerId * GROUP_FIELDS + GROUP] = buffer.getInt();
+                }
+            }
+        }
+        if (reservedSlots != null) {
+            wheel.releaseReservedSlots(reservedSlots, slotLinks);
+        } else if (relocating) {
+            wheel.assignFreeIds();
+        }
+        if (wheel.spillHeads != null) {
+            wheel.freeSpill = buffer.getInt();
+            for (int i = 0; i < wheel.spillHeads.length; i++) {
+                wheel.spillHeads[i] = buffer.getInt();
+            }
+            for (int i = 0; i < wheel.spillNext.length; i++) {
+                wheel.spillNext[i] = buffer.getInt();
+            }
+        }
+        if (wheel.generations != null) {
+            for (int i = 0; i < wheel.generations.length; i++) {
+                wheel.generations[i] = buffer.getShort();
+            }
+        }
+        if (wheel.groups != null) {
+            wheel.allocateGroupChains(buffer.getInt());
+        }
+        wheel.rebuildOccupancy();
+        return wheel;
+    }
+
+    /**
+     * version 3 and before, free the home slot a moved timer reserved, the timer keeps its id and the home
+     * slot takes the id of the slot it moved to, data of the home slot is already indexed by the timer's id
+     */
+    private void releaseReservedSlots(long[] reservedSlots, int[] slotLinks) {
+        for (int index = 0; index < reservedSlots.length; index++) {
+            for (long pending = reservedSlots[index]; pending != EMPTY_BITSET; pending &= pending - 1) {
+                final int homeId = getSlot(index, (short) Long.numberOfTrailingZeros(pending));
+                final int slot = slotLinks[homeId];
+                slotIds[slot] = homeId;
+                idSlots[homeId] = slot;
+                slotIds[homeId] = slot;
+                idSlots[slot] = homeId;
+            }
+            timerWheel.set(index, timerWheel.get(index) & ~reservedSlots[index]);
+        }
+    }
+
+    /**
+     * hand the ids no live timer holds to the free slots, in order
+     */
+    private void assignFreeIds() {
+        int freeId = 0;
+        for (int slot = 0; slot < slotIds.length; slot++) {
+            if (slotIds[slot] != NO_TIMER) {
+                continue;
+            }
+            while (idSlots[freeId] != NO_TIMER) {
+                freeId++;
+            }
+            slotIds[slot] = freeId;
+            idSlots[freeId] = slot;
+        }
+    }
+
+    /**
+     * bucket (level * ticks + bucket index) @deadline would be placed in, -1 if expired or out of range
+     */
+    int bucketOf(long deadline) {
+        final long deadlineTick = (deadline - startTime) >> tickGranularityBits;
+        if (deadline - startTime <= 0 || deadlineTick < 0) {
+            return -1;
+        }
+        final int level = levelFor(deadlineTick);
+        if (level >= levels) {
+            return -1;
+        }
+        return level * (bucketMask() + 1) + (int) ((deadlineTick >> (level * wheelBits)) & bucketMask());
+    }
+
+    int bucketCount() {
+        return levels * (bucketMask() + 1);
+    }
+
+    /**
+     * exclusive upper bound of timer ids this wheel hands out
+     */
+    int timerIdLimit() {
+        return timerWheel.length() * Long.SIZE;
+    }
+
+    /**
+     * earliest time at which pollTimeouts will expire a timer, Long.MAX_VALUE when none are scheduled
+     * eg. to park an event loop until then, never later than the next expiry, a timer waiting on a
+     * coarse level is reported at its deadline tick
+     * in precise mode the earliest exact deadline of the next occupied bucket, a coarse timer at the start of its tick
+     * occupancy bits left behind by cancelled timers are cleared on the way
+     */
+    public long nextDeadline() {
+        if (activeTimers == 0) {
+            return Long.MAX_VALUE;
+        }
+        final int ticks = bucketMask() + 1;
+        long nextTick = Long.MAX_VALUE;
+        int nextBucket = -1;
+        final long end = currentTick + ticks;
+        for (long tick = currentTick; tick < end; ) {
+            final long candidate = nextOccupiedTick(0, tick, end);
+            if (candidate >= end) {
+                break;
+            }
+            final int bucket = (int) (candidate & bucketMask());
+            if (bucketHasTimers(bucket)) {
+                nextTick = candidate;
+                nextBucket = bucket;
+                break;
+            }
+            clearOccupied(bucket);
+            tick = candidate + 1;
+        }
+        for (int level = 1; level < levels; level++) {
+            final int shift = level * wheelBits;
+            final long levelEnd = (currentTick >> shift) + ticks;
+            for (long levelTick = currentTick >> shift; levelTick < levelEnd; ) {
+                final long candidate = nextOccupiedTick(level, levelTick, levelEnd);
+                //in precise mode a coarse bucket starting in the tick found may hold an earlier deadline
+                if (candidate >= levelEnd || (candidate << shift) > nextTick
+                        || ((candidate << shift) == nextTick && exactDeadlines == null)) {
+                    break;
+                }
+                final int bucket = level * ticks + (int) (candidate & bucketMask());
+                final long minDeadlineTick = minDeadlineTick(bucket);
+                if (minDeadlineTick != Long.MAX_VALUE) {
+                    //never cascaded before the bucket starts, timers pushed past it leave a later bucket earlier
+                    final long coarseTick = Math.max(minDeadlineTick, candidate << shift);
+                    if (coarseTick <= nextTick) {
+                        nextTick = coarseTick;
+                        nextBucket = -1;
+                    }
+                } else {
+                    clearOccupied(bucket);
+                }
+                levelTick = candidate + 1;
+            }
+        }
+        if (nextTick == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        if (exactDeadlines != null) {
+            final long next = nextBucket < 0 ? tickStart(Math.max(nextTick, currentTick)) : minExactDeadline(nextBucket, nextTick);
+            //the stage also holds timers delayed out of the current tick by a full bucket
+            return stagedTick == currentTick ? Math.min(next, nextStagedDeadline()) : next;
+        }
+        return startTime + ((Math.max(nextTick, currentTick) + 1) << tickGranularityBits);
+    }
+
+    /**
+     * deadline of the first staged or pushed key, it may belong to a cancelled timer
+     */
+    private long nextStagedDeadline() {
+        long offset = Long.MAX_VALUE;
+        if (stagedNext < stagedCount) {
+            offset = stagedKeys[stagedNext] >>> slotBits;
+        }
+        if (pushedCount > 0) {
+            offset = Math.min(offset, pushedKeys[0] >>> slotBits);
+        }
+        return offset == Long.MAX_VALUE ? Long.MAX_VALUE : tickStart(stagedTick) + offset;
+    }
+
+    /**
+     * earliest deadline of the timers of @bucket due in @tick, the end of the tick when all were pushed later
+     */
+    private long minExactDeadline(int bucket, long tick) {
+        long min = tickStart(tick + 1);
+        final int startIndex = bucket * longPerBucket();
+        for (int index = startIndex; index < startIndex + longPerBucket(); index++) {
+            min = Math.min(min, minExactDeadlineOf(index, tick));
+        }
+        if (spillHeads != null) {
+            for (int index = spillHeads[bucket]; index != NO_SPILL; index = spillNext[index - spillBase]) {
+                min = Math.min(min, minExactDeadlineOf(index, tick));
+            }
+        }
+        return min;
+    }
+
+    private long minExactDeadlineOf(int index, long tick) {
+        long min = Long.MAX_VALUE;
+        for (long pending = timerWheel.get(index); pending != EMPTY_BITSET; pending &= pending - 1) {
+            final int slot = getSlot(index, (short) Long.numberOfTrailingZeros(pending));
+            if (deadlineTicks == null || deadlineTicks[slot] <= tick) {
+                min = Math.min(min, exactDeadlines[slot]);
+            }
+        }
+        return min;
+    }
+
+    public TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
 
     public long getCurrentTime() {
         return startTime + (currentTick << tickGranularityBits);
@@ -0,0 +1,35 @@
+package xyz.isaiahp.timer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * words stored in a (direct or mapped) byte buffer in native order
+ */
+public final class ByteBufferBitsetStorage implements BitsetStorage {
+    private final ByteBuffer buffer;
+    private final int length;
+
+    public ByteBufferBitsetStorage(ByteBuffer buffer, int words) {
+        if (buffer.capacity() < words * Long.BYTES) {
+            throw new IllegalArgumentException("buffer too small for " + words + " words");
+        }
+        this.buffer = buffer.order(ByteOrder.nativeOrder());
+        this.length = words;
+    }
+
+    @Override
+    public long get(int index) {
+        return buffer.getLong(index * Long.BYTES);
+    }
+
+    @Override
+    public void set(int index, long value) {
+        buffer.putLong(index * Long.BYTES, value);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+}
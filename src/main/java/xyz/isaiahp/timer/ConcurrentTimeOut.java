@@ -0,0 +1,344 @@
+package xyz.isaiahp.timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * multi producer front end for a single threaded {@link TimeOut}
+ * any thread may schedule / cancel / reschedule, the commands are published into a bounded ring of
+ * primitive slots and applied in batch by the thread calling pollTimeouts, before expiring timers
+ *
+ * producers get a timer id back immediately, ids come from a pool the polling thread refills as timers
+ * expire or are cancelled, each id carries a generation so a late cancel of a recycled id is a no-op
+ * claiming an id and publishing a command are wait-free getAndIncrements, producers only wait when the
+ * command ring is full
+ */
+public class ConcurrentTimeOut implements TimeOut {
+    private static final int CMD_EMPTY = 0;
+    private static final int CMD_SCHEDULE = 1;
+    private static final int CMD_CANCEL = 2;
+    private static final int CMD_RESCHEDULE = 3;
+    private static final int NOT_SCHEDULED = -1;
+    private static final int NO_ID = -1;
+
+    @FunctionalInterface
+    public interface RejectionHandler
+    {
+        /**
+         * a schedule or reschedule the underlying timer refused, the id is released once this returns
+         */
+        void onRejected(int timerId, long attachment, int errorCode);
+    }
+
+    private final TimeOut timeOut;
+    private final RejectionHandler rejectionHandler;
+
+    /*
+     * command ring, producers claim a sequence from @commandTail, fill the slot and publish its type
+     * the polling thread consumes in sequence order and advances @commandHead
+     */
+    private final int commandMask;
+    private final AtomicIntegerArray commandTypes;
+    private final int[] commandIds;
+    private final long[] commandDeadlines;
+    private final long[] commandAttachments;
+    private final AtomicLong commandTail = new AtomicLong();
+    private final AtomicLong commandHead = new AtomicLong();
+
+    /*
+     * pool of free ids, single producer (polling thread) many consumers
+     * a consumer reserves one of @freeCount then takes the id at its @freeHead ticket, @freeTail is the
+     * polling thread's own. id = generation << idBits | index
+     * @freeIds holds 2 laps of tickets so a released id seldom meets a producer still holding the ticket a lap
+     * behind @freeTail, if it does it waits in @pendingIds
+     */
+    private final int idBits;
+    private final int idMask;
+    private final int generationMask;
+    private final int freeMask;
+    private final AtomicIntegerArray freeIds;
+    private final AtomicLong freeHead = new AtomicLong();
+    private final AtomicInteger freeCount = new AtomicInteger();
+    private long freeTail;
+    private final int[] pendingIds;
+    private int pendingCount;
+
+    /*
+     * owned by the polling thread, indexed by id index
+     */
+    private final int[] liveIds;
+    private final int[] timerIds;
+    private final long[] attachments;
+    private AttachmentHandler handler;
+    private final AttachmentHandler expiryHandler = this::onExpired;
+    private volatile Thread pollingThread;
+
+    public ConcurrentTimeOut(TimeOut timeOut, int commandCapacity, int maxTimers) {
+        this(timeOut, commandCapacity, maxTimers, (timerId, attachment, errorCode) -> {
+        });
+    }
+
+    /**
+     * @param commandCapacity size of the command ring, power of 2
+     * @param maxTimers       ids available to producers, timers scheduled or in flight, power of 2
+     */
+    public ConcurrentTimeOut(TimeOut timeOut, int commandCapacity, int maxTimers, RejectionHandler rejectionHandler) {
+        BitsetTimeWheel.checkPowerOf2(commandCapacity, "commandCapacity");
+        BitsetTimeWheel.checkPowerOf2(maxTimers, "maxTimers");
+        if (maxTimers > (1 << 24)) {
+            throw new IllegalArgumentException("maxTimers leaves no generation bits " + maxTimers);
+        }
+        this.timeOut = timeOut;
+        this.rejectionHandler = rejectionHandler;
+        this.commandMask = commandCapacity - 1;
+        this.commandTypes = new AtomicIntegerArray(commandCapacity);
+        this.commandIds = new int[commandCapacity];
+        this.commandDeadlines = new long[commandCapacity];
+        this.commandAttachments = new long[commandCapacity];
+
+        this.idBits = Integer.numberOfTrailingZeros(maxTimers);
+        this.idMask = maxTimers - 1;
+        this.generationMask = (1 << (Integer.SIZE - 1 - idBits)) - 1;
+        this.freeMask = 2 * maxTimers - 1;
+        this.freeIds = new AtomicIntegerArray(2 * maxTimers);
+        for (int i = 0; i < maxTimers; i++) {
+            freeIds.set(i, i);
+        }
+        for (int i = maxTimers; i < 2 * maxTimers; i++) {
+            freeIds.set(i, NO_ID);
+        }
+        freeTail = maxTimers;
+        freeCount.set(maxTimers);
+        this.pendingIds = new int[maxTimers];
+        this.liveIds = new int[maxTimers];
+        this.timerIds = new int[maxTimers];
+        this.attachments = new long[maxTimers];
+        for (int i = 0; i < maxTimers; i++) {
+            liveIds[i] = NO_ID;
+            timerIds[i] = NOT_SCHEDULED;
+        }
+    }
+
+    /**
+     * @return timer id, the deadline is applied on the next poll, ERR_CAPACITY_EXCEEDED when no id is free
+     */
+    @Override
+    public int scheduleTimeout(long deadline, long attachment) {
+        final int timerId = claimTimerId();
+        if (timerId < 0) {
+            return timerId;
+        }
+        publishSchedule(timerId, deadline, attachment);
+        return timerId;
+    }
+
+    /**
+     * first half of scheduleTimeout, lets a caller store state keyed by @timerIndex before the timer can fire
+     * @return timer id, ERR_CAPACITY_EXCEEDED when no id is free
+     */
+    int claimTimerId() {
+        final int timerId = claimId();
+        return timerId < 0 ? ERR_CAPACITY_EXCEEDED : timerId;
+    }
+
+    void publishSchedule(int timerId, long deadline, long attachment) {
+        publish(CMD_SCHEDULE, timerId, deadline, attachment);
+    }
+
+    /**
+     * index of @timerId among @maxTimers, owned by the timer from its schedule until its handler returns
+     */
+    int timerIndex(int timerId) {
+        return timerId & idMask;
+    }
+
+    /**
+     * request a cancel, applied on the next poll, a no-op if the timer has fired or the id was recycled
+     * @return false only when @timeoutId can never have been issued
+     */
+    @Override
+    public boolean cancelTimer(int timeoutId) {
+        if (timeoutId < 0) {
+            return false;
+        }
+        publish(CMD_CANCEL, timeoutId, 0L, 0L);
+        return true;
+    }
+
+    /**
+     * move the deadline of a scheduled timer keeping its id, applied on the next poll
+     */
+    @Override
+    public boolean rescheduleTimeout(int timeoutId, long deadline) {
+        if (timeoutId < 0) {
+            return false;
+        }
+        publish(CMD_RESCHEDULE, timeoutId, deadline, 0L);
+        return true;
+    }
+
+    /**
+     * must always be called from the same thread
+     */
+    @Override
+    public int pollTimeouts(long now, AttachmentHandler handler) {
+        return pollTimeouts(now, handler, Integer.MAX_VALUE);
+    }
+
+    /**
+     * must always be called from the same thread
+     */
+    @Override
+    public int pollTimeouts(long now, AttachmentHandler handler, int maxExpiries) {
+        if (pollingThread == null) {
+            pollingThread = Thread.currentThread();
+        }
+        publishPending();
+        drainCommands();
+        this.handler = handler;
+        try {
+            return timeOut.pollTimeouts(now, expiryHandler, maxExpiries);
+        } finally {
+            this.handler = null;
+        }
+    }
+
+    /**
+     * apply every published command, safe to re-enter from a handler
+     * @return number of commands applied
+     */
+    public int drainCommands() {
+        int drained = 0;
+        while (true) {
+            final long head = commandHead.get();
+            final int index = (int) (head & commandMask);
+            final int type = commandTypes.get(index);
+            if (type == CMD_EMPTY) {
+                return drained;
+            }
+            final int timerId = commandIds[index];
+            final long deadline = commandDeadlines[index];
+            final long attachment = commandAttachments[index];
+            //free the slot before applying so a handler publishing into a full ring can re-enter
+            commandTypes.lazySet(index, CMD_EMPTY);
+            commandHead.lazySet(head + 1);
+            apply(type, timerId, deadline, attachment);
+            drained++;
+        }
+    }
+
+    private void apply(int type, int timerId, long deadline, long attachment) {
+        final int index = timerId & idMask;
+        switch (type) {
+            case CMD_SCHEDULE:
+                liveIds[index] = timerId;
+                attachments[index] = attachment;
+                schedule(index, deadline);
+                break;
+            case CMD_CANCEL:
+                if (liveIds[index] == timerId && timerIds[index] != NOT_SCHEDULED) {
+                    timeOut.cancelTimer(timerIds[index]);
+                    release(index);
+                }
+                break;
+            case CMD_RESCHEDULE:
+                if (liveIds[index] == timerId && timerIds[index] != NOT_SCHEDULED
+                        && !timeOut.rescheduleTimeout(timerIds[index], deadline)) {
+                    //cannot be moved in place, schedule again so an out of range deadline is rejected
+                    timeOut.cancelTimer(timerIds[index]);
+                    schedule(index, deadline);
+                }
+                break;
+            default:
+                throw new IllegalStateException("unknown command " + type);
+        }
+    }
+
+    private void schedule(int index, long deadline) {
+        //underlying attachment is the id index, mapped back on expiry
+        final int underlyingId = timeOut.scheduleTimeout(deadline, index);
+        if (underlyingId < 0) {
+            timerIds[index] = NOT_SCHEDULED;
+            try {
+                rejectionHandler.onRejected(liveIds[index], attachments[index], underlyingId);
+            } finally {
+                release(index);
+            }
+            return;
+        }
+        timerIds[index] = underlyingId;
+    }
+
+    /**
+     * the id is released once the handler returns, a cancel or reschedule of it from the handler is a no-op
+     */
+    private void onExpired(TimeUnit timeUnit, long now, int underlyingId, long indexAttachment) {
+        final int index = (int) indexAttachment;
+        timerIds[index] = NOT_SCHEDULED;
+        try {
+            handler.onTimeout(timeUnit, now, liveIds[index], attachments[index]);
+        } finally {
+            release(index);
+        }
+    }
+
+    private void publish(int type, int timerId, long deadline, long attachment) {
+        final long sequence = commandTail.getAndIncrement();
+        while (sequence - commandHead.get() > commandMask) {
+            //ring full, back pressure
+            if (Thread.currentThread() == pollingThread) {
+                drainCommands();
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        final int index = (int) (sequence & commandMask);
+        commandIds[index] = timerId;
+        commandDeadlines[index] = deadline;
+        commandAttachments[index] = attachment;
+        commandTypes.lazySet(index, type);
+    }
+
+    /**
+     * wait-free, the reserved count guarantees the id at the ticket was published. racing for the last ids a
+     * claim may fail while another is being released or held back
+     */
+    private int claimId() {
+        if (freeCount.getAndDecrement() <= 0) {
+            freeCount.getAndIncrement();
+            return NO_ID;
+        }
+        final long head = freeHead.getAndIncrement();
+        return freeIds.getAndSet((int) (head & freeMask), NO_ID);
+    }
+
+    /**
+     * polling thread only, return the id to the pool with its generation bumped
+     */
+    private void release(int index) {
+        final int timerId = liveIds[index];
+        timerIds[index] = NOT_SCHEDULED;
+        final int generation = ((timerId >>> idBits) + 1) & generationMask;
+        pendingIds[pendingCount++] = (generation << idBits) | index;
+        publishPending();
+    }
+
+    /**
+     * polling thread only, a producer that took the ticket at @freeTail a lap ago and has not swapped its id
+     * out yet holds back the released ids, they are retried on the next release or poll rather than waited on
+     */
+    private void publishPending() {
+        while (pendingCount > 0) {
+            final long tail = freeTail;
+            final int slot = (int) (tail & freeMask);
+            if (freeIds.get(slot) != NO_ID) {
+                return;
+            }
+            freeIds.set(slot, pendingIds[--pendingCount]);
+            freeTail = tail + 1;
+            freeCount.getAndIncrement();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package xyz.isaiahp.timer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * wheel backed {@link CompletableFuture#orTimeout} and {@link CompletableFuture#completeOnTimeout}, for call rates
+ * where a task on the JDK's shared delayer per call shows up
+ *
+ * any thread attaches timeouts through a {@link ConcurrentTimeOut}, a single thread calls pollTimeouts which
+ * completes the timed out futures, dependent stages run on it. a future completing first cancels its timer with
+ * one command on the ring. deadlines are taken from the time of the last poll plus a tick, no clock is read per
+ * call and calls within a tick share a bucket, a poller lagging more than a tick fires timeouts early by the excess
+ *
+ * timeouts the wheel cannot hold, out of ids or beyond its range, fall back to the JDK's own
+ */
+public class FutureTimeouts {
+    /**
+     * value marking an orTimeout, completed exceptionally rather than with a value
+     */
+    private static final Object TIMEOUT = new Object();
+
+    private final TimeUnit timeUnit;
+    private final long tickGranularity;
+    private final long maxTimeout;
+    private final ConcurrentTimeOut timeOut;
+
+    /*
+     * indexed by timer index, owned by a timeout from its claim until its timer is handled
+     * @values is published by @futures and the command ring
+     */
+    private final AtomicReferenceArray<CompletableFuture<?>> futures;
+    private final Object[] values;
+    private final TimeOut.AttachmentHandler onExpired = this::onExpired;
+    private volatile long now;
+
+    /**
+     * @param maxTimeouts     timeouts attached at once, power of 2
+     * @param commandCapacity size of the command ring, power of 2, each timeout publishes a schedule and
+     *                        usually a cancel
+     */
+    public FutureTimeouts(TimeUnit timeUnit, long startTime, long tickGranularity, long maxTimeout,
+                          int timerPerTick, int maxTimeouts, int commandCapacity) {
+        this.timeUnit = timeUnit;
+        this.tickGranularity = tickGranularity;
+        this.maxTimeout = maxTimeout;
+        this.now = startTime;
+        this.timeOut = new ConcurrentTimeOut(
+                new BitsetTimeWheel(timeUnit, startTime, tickGranularity, maxTimeout, timerPerTick),
+                commandCapacity, maxTimeouts, this::onRejected);
+        this.futures = new AtomicReferenceArray<>(maxTimeouts);
+        this.values = new Object[maxTimeouts];
+    }
+
+    /**
+     * as {@link CompletableFuture#orTimeout}, completes @future with a {@link TimeoutException}
+     */
+    public <T> CompletableFuture<T> orTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+        return attach(future, TIMEOUT, timeout, unit) ? future : future.orTimeout(timeout, unit);
+    }
+
+    /**
+     * as {@link CompletableFuture#completeOnTimeout}, completes @future with @value
+     */
+    public <T> CompletableFuture<T> completeOnTimeout(CompletableFuture<T> future, T value, long timeout, TimeUnit unit) {
+        return attach(future, value, timeout, unit) ? future : future.completeOnTimeout(value, timeout, unit);
+    }
+
+    /**
+     * must always be called from the same thread
+     * @return number of futures timed out
+     */
+    public int pollTimeouts(long now) {
+        this.now = now;
+        return timeOut.pollTimeouts(now, onExpired);
+    }
+
+    /**
+     * @return false when the wheel cannot take the timeout
+     */
+    private boolean attach(CompletableFuture<?> future, Object value, long timeout, TimeUnit unit) {
+        if (future.isDone()) {
+            return true;
+        }
+        final long duration = toDuration(timeout, unit);
+        if (duration > maxTimeout) {
+            return false;
+        }
+        final int timerId = timeOut.claimTimerId();
+        if (timerId < 0) {
+            return false;
+        }
+        final int index = timeOut.timerIndex(timerId);
+        values[index] = value;
+        futures.set(index, future);
+        final long deadline = now + duration + tickGranularity;
+        //the deadline rides along as the attachment for a rejection to fall back on
+        timeOut.publishSchedule(timerId, deadline, deadline);
+        future.whenComplete((result, failure) -> onCompleted(future, timerId));
+        return true;
+    }
+
+    /**
+     * @timeout in @timeUnit rounded up, Long.MAX_VALUE when the conversion saturates
+     */
+    private long toDuration(long timeout, TimeUnit unit) {
+        final long duration = timeUnit.convert(timeout, unit);
+        if (duration == Long.MAX_VALUE) {
+            return duration;
+        }
+        return unit.convert(duration, timeUnit) < timeout ? duration + 1 : duration;
+    }
+
+    /**
+     * any thread, a slot no longer holding @future was taken by the expiry. @values is left to be overwritten
+     * by the next claim, once the slot is cleared the timer may fire and the index be claimed again
+     */
+    private void onCompleted(CompletableFuture<?> future, int timerId) {
+        if (futures.compareAndSet(timeOut.timerIndex(timerId), future, null)) {
+            timeOut.cancelTimer(timerId);
+        }
+    }
+
+    private void onExpired(TimeUnit timeUnit, long now, int timerId, long deadline) {
+        final int index = timeOut.timerIndex(timerId);
+        final CompletableFuture<?> future = futures.getAndSet(index, null);
+        final Object value = values[index];
+        values[index] = null;
+        if (future != null) {
+            complete(future, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void complete(CompletableFuture<?> future, Object value) {
+        if (value == TIMEOUT) {
+            future.completeExceptionally(new TimeoutException());
+        } else {
+            ((CompletableFuture<Object>) future).complete(value);
+        }
+    }
+
+    /**
+     * polling thread, a deadline already behind the wheel times out now, others go to the JDK
+     */
+    @SuppressWarnings("unchecked")
+    private void onRejected(int timerId, long deadline, int errorCode) {
+        final int index = timeOut.timerIndex(timerId);
+        final CompletableFuture<?> future = futures.getAndSet(index, null);
+        final Object value = values[index];
+        values[index] = null;
+        if (future == null) {
+            return;
+        }
+        if (errorCode == TimeOut.ERR_EXPIRED) {
+            complete(future, value);
+            return;
+        }
+        final long remaining = Math.max(deadline - now, 0);
+        if (value == TIMEOUT) {
+            future.orTimeout(remaining, timeUnit);
+        } else {
+            ((CompletableFuture<Object>) future).completeOnTimeout(value, remaining, timeUnit);
+        }
+    }
+}
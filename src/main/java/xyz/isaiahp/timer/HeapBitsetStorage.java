@@ -0,0 +1,27 @@
+package xyz.isaiahp.timer;
+
+/**
+ * words in a plain long[]
+ */
+final class HeapBitsetStorage implements BitsetStorage {
+    private final long[] words;
+
+    HeapBitsetStorage(int words) {
+        this.words = new long[words];
+    }
+
+    @Override
+    public long get(int index) {
+        return words[index];
+    }
+
+    @Override
+    public void set(int index, long value) {
+        words[index] = value;
+    }
+
+    @Override
+    public int length() {
+        return words.length;
+    }
+}
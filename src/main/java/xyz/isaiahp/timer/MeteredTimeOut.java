@@ -0,0 +1,322 @@
+package xyz.isaiahp.timer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * instruments any {@link TimeOut}, an unwrapped timer pays nothing
+ * counts schedules, cancels, reschedules, expiries and each ERR_* rejection and records poll lag
+ * (time between polls) and expiry jitter (now - deadline on expiry) in power of 2 histograms,
+ * wrapping a {@link BitsetTimeWheel} also tracks the high-water mark of timers per bucket, counted against the
+ * bucket a timer's deadline maps to when scheduled or rescheduled, a cascade does not move it and a periodic
+ * timer re-armed by the wheel is no longer counted
+ *
+ * all updates are made by the thread using the timer with plain increments published by lazySet,
+ * {@link #snapshot(Snapshot)} may be called from any thread and never writes
+ * values are in the time unit of the timer
+ */
+public class MeteredTimeOut implements TimeOut {
+    public static final int SCHEDULED = 0;
+    public static final int CANCELLED = 1;
+    public static final int RESCHEDULED = 2;
+    public static final int EXPIRED = 3;
+    public static final int POLLS = 4;
+    public static final int REJECTED_OUT_OF_RANGE = 5;
+    public static final int REJECTED_EXPIRED = 6;
+    public static final int REJECTED_CAPACITY_EXCEEDED = 7;
+    public static final int COUNTERS = 8;
+
+    /**
+     * histogram bucket 0 holds values <= 0, bucket b holds values in [2^(b-1), 2^b)
+     */
+    public static final int HISTOGRAM_BUCKETS = Long.SIZE;
+
+    private static final long NO_POLL = Long.MIN_VALUE;
+    private static final int NO_TIMER = -1;
+    private static final int NO_BUCKET = -1;
+
+    private final TimeOut timeOut;
+    private final BitsetTimeWheel wheel;
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS);
+    private final AtomicLongArray pollLag = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicLongArray expiryJitter = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicIntegerArray occupancyHighWater;
+    /**
+     * timers counted per bucket, +1 on schedule, -1 on cancel or expiry, and the bucket each timer id is counted in
+     */
+    private final int[] occupancy;
+    private final int[] timerBuckets;
+
+    /*
+     * deadline per timer for jitter, direct mapped by id, an entry overwritten by another id is not recorded
+     */
+    private final long[] deadlines;
+    private final int[] deadlineIds;
+    private final int deadlineMask;
+
+    private long lastPoll = NO_POLL;
+    private AttachmentHandler handler;
+    private final AttachmentHandler expiryHandler = this::onExpired;
+
+    /**
+     * @param trackedTimers size of the deadline table used for expiry jitter, power of 2
+     */
+    public MeteredTimeOut(TimeOut timeOut, int trackedTimers) {
+        this(timeOut, null, trackedTimers);
+    }
+
+    /**
+     * tracks every timer id of @wheel and its bucket occupancy
+     */
+    public MeteredTimeOut(BitsetTimeWheel wheel) {
+        this(wheel, wheel, Integer.highestOneBit(wheel.timerIdLimit() - 1) << 1);
+    }
+
+    private MeteredTimeOut(TimeOut timeOut, BitsetTimeWheel wheel, int trackedTimers) {
+        BitsetTimeWheel.checkPowerOf2(trackedTimers, "trackedTimers");
+        this.timeOut = timeOut;
+        this.wheel = wheel;
+        this.occupancyHighWater = new AtomicIntegerArray(wheel == null ? 0 : wheel.bucketCount());
+        this.occupancy = new int[occupancyHighWater.length()];
+        this.timerBuckets = new int[wheel == null ? 0 : wheel.timerIdLimit()];
+        Arrays.fill(timerBuckets, NO_BUCKET);
+        this.deadlines = new long[trackedTimers];
+        this.deadlineIds = new int[trackedTimers];
+        this.deadlineMask = trackedTimers - 1;
+        Arrays.fill(deadlineIds, NO_TIMER);
+    }
+
+    @Override
+    public int scheduleTimeout(long deadline, long attachment) {
+        final int timerId = timeOut.scheduleTimeout(deadline, attachment);
+        onScheduled(timerId, deadline);
+        return timerId;
+    }
+
+    @Override
+    public int scheduleTimeouts(long[] deadlines, int[] outIds, int count) {
+        final int scheduled = timeOut.scheduleTimeouts(deadlines, outIds, count);
+        for (int i = 0; i < count; i++) {
+            onScheduled(outIds[i], deadlines[i]);
+        }
+        return scheduled;
+    }
+
+    @Override
+    public boolean cancelTimer(int timeoutId) {
+        if (timeOut.cancelTimer(timeoutId)) {
+            increment(counters, CANCELLED);
+            uncount(timeoutId);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int cancelTimers(int[] ids, int count) {
+        final int cancelled = timeOut.cancelTimers(ids, count);
+        counters.lazySet(CANCELLED, counters.get(CANCELLED) + cancelled);
+        if (wheel != null) {
+            //every counted id is live in the wheel, so each was cancelled
+            for (int i = 0; i < count; i++) {
+                uncount(ids[i]);
+            }
+        }
+        return cancelled;
+    }
+
+    @Override
+    public boolean rescheduleTimeout(int timeoutId, long deadline) {
+        if (timeOut.rescheduleTimeout(timeoutId, deadline)) {
+            increment(counters, RESCHEDULED);
+            track(timeoutId, deadline);
+            count(timeoutId, deadline);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int pollTimeouts(long now, AttachmentHandler handler) {
+        return pollTimeouts(now, handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int pollTimeouts(long now, AttachmentHandler handler, int maxExpiries) {
+        increment(counters, POLLS);
+        if (lastPoll != NO_POLL) {
+            increment(pollLag, histogramBucket(now - lastPoll));
+        }
+        lastPoll = now;
+        this.handler = handler;
+        try {
+            return timeOut.pollTimeouts(now, expiryHandler, maxExpiries);
+        } finally {
+            this.handler = null;
+        }
+    }
+
+    private void onScheduled(int timerId, long deadline) {
+        switch (timerId) {
+            case ERR_OUT_OF_RANGE:
+                increment(counters, REJECTED_OUT_OF_RANGE);
+                return;
+            case ERR_EXPIRED:
+                increment(counters, REJECTED_EXPIRED);
+                return;
+            case ERR_CAPACITY_EXCEEDED:
+                increment(counters, REJECTED_CAPACITY_EXCEEDED);
+                return;
+            default:
+                break;
+        }
+        if (timerId < 0) {
+            return;
+        }
+        increment(counters, SCHEDULED);
+        track(timerId, deadline);
+        count(timerId, deadline);
+    }
+
+    /**
+     * count @timerId in the bucket of @deadline, moving it out of any bucket it was counted in
+     */
+    private void count(int timerId, long deadline) {
+        if (wheel == null) {
+            return;
+        }
+        uncount(timerId);
+        final int bucket = wheel.bucketOf(deadline);
+        if (bucket < 0) {
+            return;
+        }
+        timerBuckets[timerId] = bucket;
+        final int timers = ++occupancy[bucket];
+        if (timers > occupancyHighWater.get(bucket)) {
+            occupancyHighWater.lazySet(bucket, timers);
+        }
+    }
+
+    private void uncount(int timerId) {
+        if (timerId < 0 || timerId >= timerBuckets.length) {
+            return;
+        }
+        final int bucket = timerBuckets[timerId];
+        if (bucket != NO_BUCKET) {
+            occupancy[bucket]--;
+            timerBuckets[timerId] = NO_BUCKET;
+        }
+    }
+
+    private void track(int timerId, long deadline) {
+        final int index = timerId & deadlineMask;
+        deadlines[index] = deadline;
+        deadlineIds[index] = timerId;
+    }
+
+    private void onExpired(TimeUnit timeUnit, long now, int timerId, long attachment) {
+        increment(counters, EXPIRED);
+        uncount(timerId);
+        final int index = timerId & deadlineMask;
+        if (deadlineIds[index] == timerId) {
+            deadlineIds[index] = NO_TIMER;
+            increment(expiryJitter, histogramBucket(now - deadlines[index]));
+        }
+        handler.onTimeout(timeUnit, now, timerId, attachment);
+    }
+
+    /**
+     * single writer increment, readers on other threads see it without a locked instruction on the hot path
+     */
+    private static void increment(AtomicLongArray array, int index) {
+        array.lazySet(index, array.get(index) + 1);
+    }
+
+    public static int histogramBucket(long value) {
+        return value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * exclusive upper bound of the values counted in histogram @bucket
+     */
+    public static long histogramUpperBound(int bucket) {
+        return bucket == HISTOGRAM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public TimeOut timeOut() {
+        return timeOut;
+    }
+
+    public Snapshot newSnapshot() {
+        return new Snapshot(occupancyHighWater.length());
+    }
+
+    /**
+     * copy the current values into @into, safe from any thread, counters are read one by one so a
+     * snapshot taken while the timer is running is not atomic across counters
+     */
+    public Snapshot snapshot(Snapshot into) {
+        for (int i = 0; i < COUNTERS; i++) {
+            into.counters[i] = counters.get(i);
+        }
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            into.pollLag[i] = pollLag.get(i);
+            into.expiryJitter[i] = expiryJitter.get(i);
+        }
+        for (int i = 0; i < into.occupancyHighWater.length; i++) {
+            into.occupancyHighWater[i] = occupancyHighWater.get(i);
+        }
+        return into;
+    }
+
+    /**
+     * reusable copy of the metrics, see {@link #newSnapshot()}
+     */
+    public static final class Snapshot {
+        private final long[] counters = new long[COUNTERS];
+        private final long[] pollLag = new long[HISTOGRAM_BUCKETS];
+        private final long[] expiryJitter = new long[HISTOGRAM_BUCKETS];
+        private final int[] occupancyHighWater;
+
+        private Snapshot(int buckets) {
+            this.occupancyHighWater = new int[buckets];
+        }
+
+        /**
+         * @counter one of SCHEDULED, CANCELLED, ... REJECTED_CAPACITY_EXCEEDED
+         */
+        public long counter(int counter) {
+            return counters[counter];
+        }
+
+        public long pollLag(int histogramBucket) {
+            return pollLag[histogramBucket];
+        }
+
+        public long expiryJitter(int histogramBucket) {
+            return expiryJitter[histogramBucket];
+        }
+
+        /**
+         * most timers seen in wheel bucket (level * ticks + bucket index), empty unless wrapping a wheel
+         */
+        public int occupancyHighWater(int bucket) {
+            return occupancyHighWater[bucket];
+        }
+
+        public int buckets() {
+            return occupancyHighWater.length;
+        }
+
+        public int maxOccupancy() {
+            int max = 0;
+            for (int highWater : occupancyHighWater) {
+                max = Math.max(max, highWater);
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package xyz.isaiahp.timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntFunction;
+
+/**
+ * N independent {@link BitsetTimeWheel}s, each owned and polled by one thread (eg. one per event loop)
+ * a thread schedules into its own {@link Shard}, the shard index is encoded in the top bits of the timer id
+ * so any thread can cancel, a cancel for another shard is routed through that shard's MPSC ring of
+ * cancel requests and applied on its next poll
+ *
+ * int ids: shard << (31 - shardBits) | wheel id
+ * handles: shard << 48 | wheel handle, prefer handles for cross thread cancels, a routed cancel is applied
+ * later and only a handle can tell a reused slot apart
+ */
+public class ShardedTimeOut {
+    private static final int HANDLE_SHARD_SHIFT = 48;
+    private static final long HANDLE_MASK = (1L << HANDLE_SHARD_SHIFT) - 1;
+    /**
+     * marks a routed cancel by plain timer id, no generation check
+     */
+    private static final long CANCEL_BY_ID = 1L << 62;
+    private static final long EMPTY = 0L;
+    private static final int MAX_SHARD_BITS = 62 - HANDLE_SHARD_SHIFT;
+
+    private final Shard[] shards;
+    private final int shardBits;
+    private final int idShift;
+    private final int localIdMask;
+
+    /**
+     * @param shardCount   power of 2
+     * @param wheelFactory creates the wheel of a shard
+     * @param cancelRingCapacity size of each shard's ring of routed cancels, power of 2
+     */
+    public ShardedTimeOut(int shardCount, IntFunction<BitsetTimeWheel> wheelFactory, int cancelRingCapacity) {
+        BitsetTimeWheel.checkPowerOf2(shardCount, "shardCount");
+        BitsetTimeWheel.checkPowerOf2(cancelRingCapacity, "cancelRingCapacity");
+        this.shardBits = Integer.numberOfTrailingZeros(shardCount);
+        if (shardBits > MAX_SHARD_BITS) {
+            throw new IllegalArgumentException("too many shards " + shardCount);
+        }
+        this.idShift = Integer.SIZE - 1 - shardBits;
+        this.localIdMask = (1 << idShift) - 1;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            final BitsetTimeWheel wheel = wheelFactory.apply(i);
+            if (shardBits > 0 && wheel.timerIdLimit() > (1 << idShift)) {
+                throw new IllegalArgumentException("wheel ids exceed " + idShift + " bits for " + shardCount + " shards");
+            }
+            shards[i] = new Shard(i, wheel, cancelRingCapacity);
+        }
+    }
+
+    public Shard shard(int index) {
+        return shards[index];
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    public int shardOf(int timerId) {
+        return shardBits == 0 ? 0 : timerId >>> idShift;
+    }
+
+    public int shardOfHandle(long handle) {
+        return (int) (handle >>> HANDLE_SHARD_SHIFT);
+    }
+
+    /**
+     * cancel from any thread, routed to the owning shard and applied on its next poll
+     * @return false if the id is invalid
+     */
+    public boolean cancelTimer(int timerId) {
+        if (timerId < 0) {
+            return false;
+        }
+        shards[shardOf(timerId)].route(CANCEL_BY_ID | (timerId & localIdMask), null);
+        return true;
+    }
+
+    /**
+     * cancel a handle from any thread, a stale handle is a no-op when applied
+     */
+    public boolean cancelHandle(long handle) {
+        if (handle < 0) {
+            return false;
+        }
+        shards[shardOfHandle(handle)].route(handle & HANDLE_MASK, null);
+        return true;
+    }
+
+    /**
+     * timers across all shards, a racy snapshot when shards are running
+     */
+    public int count() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.wheel.count();
+        }
+        return count;
+    }
+
+    public final class Shard implements TimeOut {
+        private final int index;
+        private final BitsetTimeWheel wheel;
+        private final int idBase;
+        private final long handleBase;
+
+        /*
+         * routed cancels, entries stored inverted so EMPTY never collides with a request
+         */
+        private final AtomicLongArray cancelRing;
+        private final int cancelMask;
+        private final AtomicLong cancelTail = new AtomicLong();
+        private final AtomicLong cancelHead = new AtomicLong();
+
+        private AttachmentHandler handler;
+        private final AttachmentHandler shardHandler = this::onExpired;
+
+        private Shard(int index, BitsetTimeWheel wheel, int cancelRingCapacity) {
+            this.index = index;
+            this.wheel = wheel;
+            this.idBase = shardBits == 0 ? 0 : index << idShift;
+            this.handleBase = (long) index << HANDLE_SHARD_SHIFT;
+            this.cancelRing = new AtomicLongArray(cancelRingCapacity);
+            this.cancelMask = cancelRingCapacity - 1;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        /**
+         * owning thread only
+         */
+        @Override
+        public int scheduleTimeout(long deadline, long attachment) {
+            final int timerId = wheel.scheduleTimeout(deadline, attachment);
+            return timerId < 0 ? timerId : idBase | timerId;
+        }
+
+        /**
+         * owning thread only
+         */
+        public long scheduleTimeoutHandle(long deadline, long attachment) {
+            final long handle = wheel.scheduleTimeoutHandle(deadline, attachment);
+            return handle < 0 ? handle : handleBase | handle;
+        }
+
+        /**
+         * owning thread only, cancels of this shard are applied directly, others are routed
+         * @return for a routed cancel true once requested
+         */
+        @Override
+        public boolean cancelTimer(int timeoutId) {
+            if (timeoutId < 0) {
+                return false;
+            }
+            final int owner = shardOf(timeoutId);
+            if (owner == index) {
+                return wheel.cancelTimer(timeoutId & localIdMask);
+            }
+            shards[owner].route(CANCEL_BY_ID | (timeoutId & localIdMask), this);
+            return true;
+        }
+
+        /**
+         * owning thread only, timers of other shards cannot be rescheduled
+         */
+        @Override
+        public boolean rescheduleTimeout(int timeoutId, long deadline) {
+            if (timeoutId < 0 || shardOf(timeoutId) != index) {
+                return false;
+            }
+            return wheel.rescheduleTimeout(timeoutId & localIdMask, deadline);
+        }
+
+        /**
+         * owning thread only, see {@link #cancelTimer(int)}
+         */
+        public boolean cancelHandle(long handle) {
+            if (handle < 0) {
+                return false;
+            }
+            final int owner = shardOfHandle(handle);
+            if (owner == index) {
+                return wheel.cancelHandle(handle & HANDLE_MASK);
+            }
+            shards[owner].route(handle & HANDLE_MASK, this);
+            return true;
+        }
+
+        /**
+         * owning thread only, applies routed cancels then expires, timer ids passed to @handler are global
+         */
+        @Override
+        public int pollTimeouts(long now, AttachmentHandler handler) {
+            return pollTimeouts(now, handler, Integer.MAX_VALUE);
+        }
+
+        /**
+         * owning thread only, see {@link #pollTimeouts(long, AttachmentHandler)}
+         */
+        @Override
+        public int pollTimeouts(long now, AttachmentHandler handler, int maxExpiries) {
+            drainCancels();
+            this.handler = handler;
+            try {
+                return wheel.pollTimeouts(now, shardHandler, maxExpiries);
+            } finally {
+                this.handler = null;
+            }
+        }
+
+        public int count() {
+            return wheel.count();
+        }
+
+        public long getCurrentTime() {
+            return wheel.getCurrentTime();
+        }
+
+        /**
+         * owning thread only, see {@link BitsetTimeWheel#nextDeadline()}, routed cancels not yet applied
+         * can only make it early
+         */
+        public long nextDeadline() {
+            return wheel.nextDeadline();
+        }
+
+        private void onExpired(TimeUnit timeUnit, long now, int timerId, long attachment) {
+            handler.onTimeout(timeUnit, now, idBase | timerId, attachment);
+        }
+
+        /**
+         * @param caller shard of the calling thread, drained while this ring is full so two shards
+         *               cancelling into each other cannot deadlock
+         */
+        private void route(long request, Shard caller) {
+            final long sequence = cancelTail.getAndIncrement();
+            while (sequence - cancelHead.get() > cancelMask) {
+                if (caller != null) {
+                    caller.drainCancels();
+                }
+                Thread.onSpinWait();
+            }
+            cancelRing.lazySet((int) (sequence & cancelMask), ~request);
+        }
+
+        private int drainCancels() {
+            int drained = 0;
+            while (true) {
+                final long head = cancelHead.get();
+                final int slot = (int) (head & cancelMask);
+                final long entry = cancelRing.get(slot);
+                if (entry == EMPTY) {
+                    return drained;
+                }
+                cancelRing.lazySet(slot, EMPTY);
+                cancelHead.lazySet(head + 1);
+                final long request = ~entry;
+                if ((request & CANCEL_BY_ID) != 0) {
+                    wheel.cancelTimer((int) request);
+                } else {
+                    wheel.cancelHandle(request);
+                }
+                drained++;
+            }
+        }
+    }
+}
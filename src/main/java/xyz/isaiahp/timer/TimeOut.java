@@ -3,16 +3,111 @@ package xyz.isaiahp.timer;
 import java.util.concurrent.TimeUnit;
 
 public interface TimeOut {
+    byte ERR_OUT_OF_RANGE = -2;
+    byte ERR_EXPIRED = -3;
+    byte ERR_CAPACITY_EXCEEDED = -4;
 
-    int scheduleTimeout(long deadline);
+    default int scheduleTimeout(long deadline) {
+        return scheduleTimeout(deadline, 0L);
+    }
+
+    /**
+     * @param attachment primitive value handed back to the handler on expiry (eg. a session index)
+     *                   so expiry needs no timerId lookup
+     */
+    int scheduleTimeout(long deadline, long attachment);
     boolean cancelTimer(int timeoutId);
 
-    int pollTimeouts(final long now, final TimeOut.Handler handler);
+    /**
+     * move the deadline of a scheduled timer keeping its id, eg. push an idle timeout forward
+     * @return false if the timer is not scheduled or @deadline cannot be held
+     */
+    boolean rescheduleTimeout(int timeoutId, long deadline);
+
+    /**
+     * schedule the first @count @deadlines, @outIds[i] receives the timer id or ERR_* code of @deadlines[i]
+     * @return number of timers scheduled
+     */
+    default int scheduleTimeouts(long[] deadlines, int[] outIds, int count) {
+        int scheduled = 0;
+        for (int i = 0; i < count; i++) {
+            final int timerId = scheduleTimeout(deadlines[i]);
+            outIds[i] = timerId;
+            if (timerId >= 0) {
+                scheduled++;
+            }
+        }
+        return scheduled;
+    }
+
+    /**
+     * cancel the first @count @ids
+     * @return number of timers cancelled
+     */
+    default int cancelTimers(int[] ids, int count) {
+        int cancelled = 0;
+        for (int i = 0; i < count; i++) {
+            if (cancelTimer(ids[i])) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    default int pollTimeouts(final long now, final TimeOut.Handler handler) {
+        return pollTimeouts(now, (AttachmentHandler) handler);
+    }
+
+    int pollTimeouts(final long now, final TimeOut.AttachmentHandler handler);
 
+    default int pollTimeouts(final long now, final TimeOut.Handler handler, int maxExpiries) {
+        return pollTimeouts(now, (AttachmentHandler) handler, maxExpiries);
+    }
+
+    /**
+     * expire at most @maxExpiries timers, bounding the time spent per call eg. in an event loop also doing I/O
+     * the timers left over are expired first by the next poll
+     */
+    int pollTimeouts(final long now, final TimeOut.AttachmentHandler handler, int maxExpiries);
+
+    /**
+     * expire into @batch, its handler is called once per full batch and once at the end of the poll
+     */
+    default int pollTimeouts(final long now, final TimeoutBatch batch) {
+        try {
+            return pollTimeouts(now, (AttachmentHandler) batch);
+        } finally {
+            batch.flush();
+        }
+    }
+
+
+    @FunctionalInterface
+    interface AttachmentHandler
+    {
+        void onTimeout(TimeUnit timeUnit, long now, int timerId, long attachment);
+    }
 
     @FunctionalInterface
-    interface Handler
+    interface Handler extends AttachmentHandler
     {
         void onTimeout(TimeUnit timeUnit, long now, int timerId);
+
+        @Override
+        default void onTimeout(TimeUnit timeUnit, long now, int timerId, long attachment) {
+            onTimeout(timeUnit, now, timerId);
+        }
+    }
+
+    /**
+     * receives expired timers of a poll in bulk through a {@link TimeoutBatch}
+     */
+    @FunctionalInterface
+    interface BatchHandler
+    {
+        /**
+         * @timerIds and @attachments are reused, only the first @count entries are valid and only during the call
+         */
+        void onTimeouts(TimeUnit timeUnit, long now, int[] timerIds, long[] attachments, int count);
     }
 }
@@ -0,0 +1,55 @@
+package xyz.isaiahp.timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * collects the timers expired by a poll into reused arrays and hands them to a {@link TimeOut.BatchHandler},
+ * one handler call per @capacity expiries instead of one per timer
+ * it does not make the wheel expire faster, a monomorphic per timer handler is as cheap in a dense bucket,
+ * it is for handlers that act per poll, e.g. one write or one queue offer for the whole batch
+ * create once and pass to every {@link TimeOut#pollTimeouts(long, TimeoutBatch)}, not re-entrant
+ */
+public final class TimeoutBatch implements TimeOut.AttachmentHandler {
+    private final TimeOut.BatchHandler handler;
+    private final int[] timerIds;
+    private final long[] attachments;
+    private int count;
+    private TimeUnit timeUnit;
+    private long now;
+
+    public TimeoutBatch(int capacity, TimeOut.BatchHandler handler) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1 " + capacity);
+        }
+        this.handler = handler;
+        this.timerIds = new int[capacity];
+        this.attachments = new long[capacity];
+    }
+
+    @Override
+    public void onTimeout(TimeUnit timeUnit, long now, int timerId, long attachment) {
+        this.timeUnit = timeUnit;
+        this.now = now;
+        timerIds[count] = timerId;
+        attachments[count] = attachment;
+        if (++count == timerIds.length) {
+            flush();
+        }
+    }
+
+    /**
+     * hand pending expiries to the handler, called by the poll when it completes
+     */
+    public void flush() {
+        final int pending = count;
+        if (pending == 0) {
+            return;
+        }
+        count = 0;
+        handler.onTimeouts(timeUnit, now, timerIds, attachments, pending);
+    }
+
+    public int capacity() {
+        return timerIds.length;
+    }
+}
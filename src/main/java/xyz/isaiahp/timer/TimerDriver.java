@@ -0,0 +1,224 @@
+package xyz.isaiahp.timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * drives a {@link BitsetTimeWheel} from a {@link Clock}, the loop otherwise written around every pollTimeouts
+ *
+ * doWork reads the clock once, polls the wheel and caches the time, handlers and the rest of a duty cycle read it
+ * from {@link #now()} rather than the clock. idle then waits as its {@link IdleStrategy} says, from spinning on a
+ * trading thread to parking until the next deadline in a background service, the loop is the same
+ *
+ * run loops doWork / idle on the calling thread until close. to compose into an existing duty cycle call doWork
+ * and pass the work of the whole cycle to idle instead. the wheel stays single threaded, it is only touched from
+ * the thread driving it, eg. from handlers or the rest of the cycle
+ */
+public class TimerDriver implements Runnable, AutoCloseable {
+
+    @FunctionalInterface
+    public interface Clock
+    {
+        /**
+         * current time in the wheel's time unit, on the scale of its start time
+         */
+        long time();
+
+        /**
+         * monotonic System.nanoTime in @timeUnit rebased to read @startTime now, eg. the start time of the wheel
+         */
+        static Clock nanoTime(TimeUnit timeUnit, long startTime) {
+            final long origin = System.nanoTime();
+            return () -> startTime + timeUnit.convert(System.nanoTime() - origin, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * wall clock, for a millisecond wheel started at System.currentTimeMillis(), may step back on a clock change
+         */
+        static Clock currentTimeMillis() {
+            return System::currentTimeMillis;
+        }
+    }
+
+    @FunctionalInterface
+    public interface IdleStrategy
+    {
+        /**
+         * @param workCount work done by the last duty cycle, 0 when it found nothing to do
+         */
+        void idle(TimerDriver driver, int workCount);
+
+        /**
+         * lowest latency, burns a core
+         */
+        static IdleStrategy busySpin() {
+            return (driver, workCount) -> {
+                if (workCount == 0) {
+                    Thread.onSpinWait();
+                }
+            };
+        }
+
+        static IdleStrategy yielding() {
+            return (driver, workCount) -> {
+                if (workCount == 0) {
+                    Thread.yield();
+                }
+            };
+        }
+
+        /**
+         * spin then yield then park from @minParkNanos doubling up to @maxParkNanos while idle, never past the next
+         * deadline, back to spinning once there is work. keeps state, one per driver
+         */
+        static IdleStrategy backoff(int maxSpins, int maxYields, long minParkNanos, long maxParkNanos) {
+            return new Backoff(maxSpins, maxYields, minParkNanos, maxParkNanos);
+        }
+
+        /**
+         * park until the wheel's next deadline, at most @maxParkNanos so a composed duty cycle still gets to its
+         * other work, eg. a background service whose timers are its only work
+         */
+        static IdleStrategy parkUntilDeadline(long maxParkNanos) {
+            return (driver, workCount) -> {
+                if (workCount == 0) {
+                    LockSupport.parkNanos(Math.min(driver.nanosToNextDeadline(), maxParkNanos));
+                }
+            };
+        }
+    }
+
+    private final BitsetTimeWheel wheel;
+    private final Clock clock;
+    private final IdleStrategy idleStrategy;
+    private final TimeOut.AttachmentHandler handler;
+    private final int maxExpiries;
+    private long now;
+    private volatile boolean running = true;
+    private volatile Thread runThread;
+
+    public TimerDriver(BitsetTimeWheel wheel, Clock clock, IdleStrategy idleStrategy, TimeOut.AttachmentHandler handler) {
+        this(wheel, clock, idleStrategy, handler, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxExpiries timers expired per doWork at most, bounds the time a cycle spends on a fire storm
+     */
+    public TimerDriver(BitsetTimeWheel wheel, Clock clock, IdleStrategy idleStrategy, TimeOut.AttachmentHandler handler,
+                       int maxExpiries) {
+        if (maxExpiries < 1) {
+            throw new IllegalArgumentException("maxExpiries must be at least 1 " + maxExpiries);
+        }
+        this.wheel = wheel;
+        this.clock = clock;
+        this.idleStrategy = idleStrategy;
+        this.handler = handler;
+        this.maxExpiries = maxExpiries;
+        this.now = wheel.getCurrentTime();
+    }
+
+    /**
+     * one duty cycle of the wheel, the only clock read of the cycle
+     * @return number of timers expired
+     */
+    public int doWork() {
+        now = clock.time();
+        return wheel.pollTimeouts(now, handler, maxExpiries);
+    }
+
+    /**
+     * wait as the idle strategy says after a duty cycle that did @workCount work
+     */
+    public void idle(int workCount) {
+        idleStrategy.idle(this, workCount);
+    }
+
+    /**
+     * time read by the last doWork, eg. for deadlines scheduled in a handler
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * nanoseconds from the time read by the last doWork to the wheel's next deadline, <= 0 when due,
+     * Long.MAX_VALUE when the wheel is empty. work done after doWork in the same cycle is not taken off
+     */
+    public long nanosToNextDeadline() {
+        final long deadline = wheel.nextDeadline();
+        if (deadline == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return wheel.getTimeUnit().toNanos(deadline - now);
+    }
+
+    public BitsetTimeWheel wheel() {
+        return wheel;
+    }
+
+    /**
+     * loop doWork / idle on the calling thread until close, a driver runs once
+     */
+    @Override
+    public void run() {
+        runThread = Thread.currentThread();
+        try {
+            while (running) {
+                idle(doWork());
+            }
+        } finally {
+            runThread = null;
+        }
+    }
+
+    /**
+     * any thread, run returns after the cycle in progress, a parked driver is woken
+     */
+    @Override
+    public void close() {
+        running = false;
+        final Thread thread = runThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private static final class Backoff implements IdleStrategy {
+        private final int maxSpins;
+        private final int maxYields;
+        private final long minParkNanos;
+        private final long maxParkNanos;
+        private int spins;
+        private int yields;
+        private long parkNanos;
+
+        Backoff(int maxSpins, int maxYields, long minParkNanos, long maxParkNanos) {
+            if (minParkNanos < 1 || maxParkNanos < minParkNanos) {
+                throw new IllegalArgumentException("park nanos must be 1 <= min <= max " + minParkNanos + " " + maxParkNanos);
+            }
+            this.maxSpins = maxSpins;
+            this.maxYields = maxYields;
+            this.minParkNanos = minParkNanos;
+            this.maxParkNanos = maxParkNanos;
+            this.parkNanos = minParkNanos;
+        }
+
+        @Override
+        public void idle(TimerDriver driver, int workCount) {
+            if (workCount > 0) {
+                spins = 0;
+                yields = 0;
+                parkNanos = minParkNanos;
+            } else if (spins < maxSpins) {
+                spins++;
+                Thread.onSpinWait();
+            } else if (yields < maxYields) {
+                yields++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(Math.min(parkNanos, driver.nanosToNextDeadline()));
+                parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+            }
+        }
+    }
+}
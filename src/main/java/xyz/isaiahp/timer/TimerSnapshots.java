@@ -0,0 +1,48 @@
+package xyz.isaiahp.timer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * save / reopen a {@link BitsetTimeWheel} snapshot file across process restarts
+ */
+public final class TimerSnapshots {
+
+    private TimerSnapshots() {
+    }
+
+    /**
+     * write to a temporary file next to @path and atomically move it in place
+     * so a crash mid write leaves the previous snapshot intact
+     */
+    public static void save(BitsetTimeWheel wheel, Path path) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(wheel.snapshotSize());
+        wheel.writeSnapshot(buffer);
+        buffer.flip();
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * map the snapshot and rebuild the wheel, the first pollTimeouts fires what expired while down
+     */
+    public static BitsetTimeWheel load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return BitsetTimeWheel.readSnapshot(buffer);
+        }
+    }
+}
@@ -0,0 +1,833 @@
+package xyz.isaiahp.timer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link ScheduledExecutorService} over a {@link BitsetTimeWheel} owned by a dedicated tick thread,
+ * schedule and cancel are O(1) and due tasks are handed to a dispatcher {@link Executor}, eg. a pool,
+ * a virtual thread per task executor, or Runnable::run to run them on the tick thread
+ *
+ * producers hand futures to the tick thread through lock free stacks linked through the futures themselves,
+ * a schedule allocates nothing beyond its future, or its handle when pooled. a task runs within a tick after
+ * its delay, never before
+ *
+ * with a @poolCapacity a task the caller cancelled is recycled, the common case for timeouts. the caller is
+ * handed a small handle stamped with the task's generation rather than the task, once the task is reused the
+ * handle stays cancelled and its cancel is a no-op. tasks that ran, or with a thread still in get when
+ * cancelled, are left to the gc
+ *
+ * the dispatcher is not owned, shutdown stops the tick thread only. as the JDK executor by default, delayed tasks
+ * still run after shutdown while periodic ones are cancelled
+ */
+public class WheelScheduledExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int COMPLETED = 2;
+    private static final int FAILED = 3;
+    private static final int CANCELLED = 4;
+    /**
+     * a future's stamp holds its state in the low bits and its generation above them
+     */
+    private static final int STATE_BITS = 3;
+    private static final long STATE_MASK = (1 << STATE_BITS) - 1;
+
+    private static final int RUN_STATE_RUNNING = 0;
+    private static final int RUN_STATE_SHUTDOWN = 1;
+    private static final int RUN_STATE_STOP = 2;
+
+    private static final int NOT_SCHEDULED = -1;
+    private static final long AWAKE = Long.MIN_VALUE;
+
+    private final Executor dispatcher;
+    private final TimeUnit timeUnit;
+    private final long maxDelay;
+    private final long originNanos = System.nanoTime();
+    private final BitsetTimeWheel wheel;
+    private final Thread tickThread;
+
+    /*
+     * intrusive stacks, pushed by any thread, taken whole by the tick thread
+     */
+    private final AtomicReference<TimerFuture<?>> scheduled = new AtomicReference<>();
+    private final AtomicReference<TimerFuture<?>> cancelled = new AtomicReference<>();
+    private final AtomicReference<TimerFuture<?>> done = new AtomicReference<>();
+
+    /*
+     * pool of recycled futures, single producer (tick thread) many consumers, null when not recycling
+     */
+    private final AtomicReferenceArray<TimerFuture<?>> pool;
+    private final int poolMask;
+    private final AtomicLong poolHead = new AtomicLong();
+    private final AtomicLong poolTail = new AtomicLong();
+
+    /*
+     * owned by the tick thread, futures in the wheel indexed by the timer attachment
+     */
+    private TimerFuture<?>[] wheelFutures = new TimerFuture<?>[64];
+    private int[] freeSlots = new int[64];
+    private int freeSlotCount;
+    private int slotCount;
+    private int inFlight;
+    private final TimeOut.AttachmentHandler onExpired = this::onExpired;
+
+    /**
+     * wheel time the tick thread parks until, AWAKE while it is not parked
+     * a producer scheduling an earlier deadline unparks it
+     */
+    private volatile long wakeAt = AWAKE;
+    private volatile int runState = RUN_STATE_RUNNING;
+    private volatile List<Runnable> neverRun;
+
+    /**
+     * 1 millisecond ticks, delays within 4 seconds on the fine wheel, 3 levels for longer ones, no recycling
+     */
+    public WheelScheduledExecutor(Executor dispatcher) {
+        this(dispatcher, TimeUnit.MILLISECONDS, 1, 4096, 64, 3, 4096, 0);
+    }
+
+    /**
+     * @param tickDuration power of 2 in @timeUnit, the precision of delays
+     * @param maxDelay     range of the fine wheel, longer delays are held on @levels - 1 coarser wheels and
+     *                     beyond their range parked at the furthest deadline held and rescheduled from there
+     * @param poolCapacity futures kept for reuse, power of 2, 0 to allocate one per schedule
+     */
+    public WheelScheduledExecutor(Executor dispatcher, TimeUnit timeUnit, long tickDuration, long maxDelay,
+                                  int timerPerTick, int levels, int spillTimers, int poolCapacity) {
+        if (poolCapacity != 0) {
+            BitsetTimeWheel.checkPowerOf2(poolCapacity, "poolCapacity");
+        }
+        this.dispatcher = dispatcher;
+        this.timeUnit = timeUnit;
+        this.maxDelay = maxDelay;
+        this.wheel = new BitsetTimeWheel(timeUnit, 0, tickDuration, maxDelay, timerPerTick, levels, spillTimers);
+        this.pool = poolCapacity == 0 ? null : new AtomicReferenceArray<>(poolCapacity);
+        this.poolMask = poolCapacity - 1;
+        this.tickThread = new Thread(this::tick, "timer-wheel");
+        tickThread.setDaemon(true);
+        tickThread.start();
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        return schedule(command, null, delay, 0, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        if (callable == null) {
+            throw new NullPointerException();
+        }
+        return schedule(null, callable, delay, 0, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive " + period);
+        }
+        return schedule(command, null, initialDelay, unit.toNanos(period), unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (delay <= 0) {
+            throw new IllegalArgumentException("delay must be positive " + delay);
+        }
+        return schedule(command, null, initialDelay, -unit.toNanos(delay), unit);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (runState != RUN_STATE_RUNNING) {
+            throw new RejectedExecutionException("executor shut down");
+        }
+        dispatcher.execute(command);
+    }
+
+    @Override
+    public void shutdown() {
+        if (runState == RUN_STATE_RUNNING) {
+            runState = RUN_STATE_SHUTDOWN;
+        }
+        LockSupport.unpark(tickThread);
+    }
+
+    /**
+     * cancels every delayed task, waits for the tick thread to collect them unless called from it
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        runState = RUN_STATE_STOP;
+        LockSupport.unpark(tickThread);
+        if (Thread.currentThread() == tickThread) {
+            return new ArrayList<>();
+        }
+        boolean interrupted = false;
+        while (tickThread.isAlive()) {
+            try {
+                tickThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return neverRun;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return runState != RUN_STATE_RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return runState != RUN_STATE_RUNNING && !tickThread.isAlive();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (tickThread.isAlive()) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedJoin(tickThread, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * @param period 0 for a one shot, > 0 fixed rate, < 0 fixed delay, in nanoseconds
+     */
+    @SuppressWarnings("unchecked")
+    private <V> ScheduledFuture<V> schedule(Runnable runnable, Callable<V> callable, long delay, long period, TimeUnit unit) {
+        if (runState != RUN_STATE_RUNNING) {
+            throw new RejectedExecutionException("executor shut down");
+        }
+        final TimerFuture<V> future = (TimerFuture<V>) claimFuture();
+        future.runnable = runnable;
+        future.callable = callable;
+        future.period = period;
+        future.deadlineNanos = System.nanoTime() + unit.toNanos(Math.max(delay, 0));
+        final long generation = future.generation();
+        pushScheduled(future);
+        if (runState != RUN_STATE_RUNNING && future.cancel(false)) {
+            //raced a shutdown, the tick thread may already be gone
+            throw new RejectedExecutionException("executor shut down");
+        }
+        return pool == null ? future : new FutureHandle<>(future, generation);
+    }
+
+    private void pushScheduled(TimerFuture<?> future) {
+        TimerFuture<?> head;
+        do {
+            head = scheduled.get();
+            future.nextScheduled = head;
+        } while (!scheduled.compareAndSet(head, future));
+        wakeFor(future);
+    }
+
+    /**
+     * the first cancel of a batch wakes the tick thread so cancelled timers leave the wheel
+     * rather than waiting for the next deadline
+     */
+    private void pushCancelled(TimerFuture<?> future) {
+        TimerFuture<?> head;
+        do {
+            head = cancelled.get();
+            future.nextCancelled = head;
+        } while (!cancelled.compareAndSet(head, future));
+        if (head == null && wakeAt != AWAKE) {
+            LockSupport.unpark(tickThread);
+        }
+    }
+
+    /**
+     * after the push nothing may touch the future, it may be recycled
+     * the first of a batch wakes a parked tick thread to collect it, it may be the last task a shutdown waits on
+     */
+    private void pushDone(TimerFuture<?> future, boolean rescheduled) {
+        final long deadline = wheelTime(future.deadlineNanos);
+        TimerFuture<?> head;
+        do {
+            head = done.get();
+            future.nextDone = head;
+        } while (!done.compareAndSet(head, future));
+        final long parkedUntil = wakeAt;
+        if (parkedUntil != AWAKE && (head == null || runState != RUN_STATE_RUNNING || (rescheduled && deadline < parkedUntil))) {
+            LockSupport.unpark(tickThread);
+        }
+    }
+
+    /**
+     * pairs with the tick thread publishing @wakeAt then checking the stacks before it parks
+     */
+    private void wakeFor(TimerFuture<?> future) {
+        if (wheelTime(future.deadlineNanos) < wakeAt) {
+            LockSupport.unpark(tickThread);
+        }
+    }
+
+    private long wheelTime(long nanos) {
+        return timeUnit.convert(nanos - originNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private TimerFuture<?> claimFuture() {
+        if (pool != null) {
+            while (true) {
+                final long head = poolHead.get();
+                if (head >= poolTail.get()) {
+                    break;
+                }
+                if (poolHead.compareAndSet(head, head + 1)) {
+                    final int index = (int) (head & poolMask);
+                    TimerFuture<?> future;
+                    while ((future = pool.getAndSet(index, null)) == null) {
+                        //the tick thread claimed this slot and has not stored the future yet
+                        Thread.onSpinWait();
+                    }
+                    return future;
+                }
+            }
+        }
+        return new TimerFuture<>(this);
+    }
+
+    private void tick() {
+        boolean periodicCancelled = false;
+        while (runState != RUN_STATE_STOP) {
+            if (!periodicCancelled && runState == RUN_STATE_SHUTDOWN) {
+                cancelPeriodic();
+                periodicCancelled = true;
+            }
+            applyPending();
+            final long now = wheelTime(System.nanoTime());
+            wheel.pollTimeouts(now, onExpired);
+            if (runState == RUN_STATE_SHUTDOWN && wheel.count() == 0 && inFlight == 0
+                    && scheduled.get() == null && done.get() == null) {
+                break;
+            }
+            wakeAt = wheel.nextDeadline();
+            if (scheduled.get() == null && done.get() == null && cancelled.get() == null && runState != RUN_STATE_STOP) {
+                if (wakeAt == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, TimeUnit.NANOSECONDS.convert(wakeAt - now, timeUnit));
+                }
+            }
+            wakeAt = AWAKE;
+        }
+        stop();
+    }
+
+    /**
+     * cancels first so a future cancelled before its schedule is applied is never placed in the wheel,
+     * next links are read before a future is handled as handling may recycle it
+     */
+    private void applyPending() {
+        for (TimerFuture<?> future = cancelled.getAndSet(null); future != null; ) {
+            final TimerFuture<?> next = future.nextCancelled;
+            future.cancelSeen = true;
+            if (future.timerId != NOT_SCHEDULED) {
+                wheel.cancelTimer(future.timerId);
+                removeFromWheel(future);
+            }
+            maybeRecycle(future);
+            future = next;
+        }
+        for (TimerFuture<?> future = scheduled.getAndSet(null); future != null; ) {
+            final TimerFuture<?> next = future.nextScheduled;
+            future.scheduleSeen = true;
+            if (future.state() == NEW) {
+                if (runState != RUN_STATE_RUNNING && future.period != 0) {
+                    cancelRetained(future);
+                } else {
+                    insert(future);
+                }
+            }
+            maybeRecycle(future);
+            future = next;
+        }
+        for (TimerFuture<?> future = done.getAndSet(null); future != null; ) {
+            final TimerFuture<?> next = future.nextDone;
+            future.dispatched = false;
+            inFlight--;
+            if (future.state() == NEW) {
+                //periodic, deadline already advanced by the run
+                if (runState != RUN_STATE_RUNNING) {
+                    cancelRetained(future);
+                } else {
+                    insert(future);
+                }
+            }
+            maybeRecycle(future);
+            future = next;
+        }
+    }
+
+    private void insert(TimerFuture<?> future) {
+        final long deadline = wheelTime(future.deadlineNanos);
+        if (deadline < wheel.getCurrentTime()) {
+            dispatch(future);
+            return;
+        }
+        final int slot = claimSlot();
+        int timerId = wheel.scheduleTimeout(deadline, slot);
+        if (timerId == TimeOut.ERR_OUT_OF_RANGE) {
+            //parked at the furthest deadline the wheel holds, rescheduled on expiry
+            timerId = wheel.scheduleTimeout(wheel.getCurrentTime() + maxDelay, slot);
+        }
+        if (timerId == TimeOut.ERR_EXPIRED) {
+            freeSlots[freeSlotCount++] = slot;
+            dispatch(future);
+            return;
+        }
+        if (timerId < 0) {
+            freeSlots[freeSlotCount++] = slot;
+            future.complete(FAILED, new RejectedExecutionException("timer wheel capacity exceeded " + timerId));
+            return;
+        }
+        future.timerId = timerId;
+        future.slot = slot;
+        wheelFutures[slot] = future;
+    }
+
+    private int claimSlot() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        if (slotCount == wheelFutures.length) {
+            wheelFutures = Arrays.copyOf(wheelFutures, slotCount * 2);
+            freeSlots = Arrays.copyOf(freeSlots, slotCount * 2);
+        }
+        return slotCount++;
+    }
+
+    private void removeFromWheel(TimerFuture<?> future) {
+        wheelFutures[future.slot] = null;
+        freeSlots[freeSlotCount++] = future.slot;
+        future.timerId = NOT_SCHEDULED;
+    }
+
+    private void onExpired(TimeUnit timeUnit, long now, int timerId, long slot) {
+        final TimerFuture<?> future = wheelFutures[(int) slot];
+        removeFromWheel(future);
+        if (future.state() != NEW) {
+            maybeRecycle(future);
+        } else if (wheelTime(future.deadlineNanos) >= now) {
+            //parked beyond the wheel's range
+            insert(future);
+        } else {
+            dispatch(future);
+        }
+    }
+
+    private void dispatch(TimerFuture<?> future) {
+        future.dispatched = true;
+        inFlight++;
+        try {
+            dispatcher.execute(future);
+        } catch (RejectedExecutionException e) {
+            future.dispatched = false;
+            inFlight--;
+            future.complete(FAILED, e);
+            maybeRecycle(future);
+        }
+    }
+
+    /**
+     * tick thread only, a future the caller cancelled is reused once no stack, wheel slot or dispatcher holds it
+     */
+    private void maybeRecycle(TimerFuture<?> future) {
+        if (pool == null || future.state() != CANCELLED || future.retained || !future.cancelSeen
+                || !future.scheduleSeen || future.dispatched || future.timerId != NOT_SCHEDULED) {
+            return;
+        }
+        final long tail = poolTail.get();
+        if (tail - poolHead.get() > poolMask || !future.resetUnlessAwaited()) {
+            return;
+        }
+        final int index = (int) (tail & poolMask);
+        while (pool.get(index) != null) {
+            //a consumer claimed this slot a lap ago and has not taken its future yet
+            Thread.onSpinWait();
+        }
+        pool.set(index, future);
+        poolTail.lazySet(tail + 1);
+    }
+
+    /**
+     * cancelled by the executor not the caller, who may still look at the future
+     */
+    private static void cancelRetained(TimerFuture<?> future) {
+        future.retained = true;
+        future.cancel(false);
+    }
+
+    /**
+     * futures put back in the pool so far
+     */
+    long recycledFutures() {
+        return poolTail.get();
+    }
+
+    private void cancelPeriodic() {
+        for (int slot = 0; slot < slotCount; slot++) {
+            final TimerFuture<?> future = wheelFutures[slot];
+            if (future != null && future.period != 0) {
+                cancelRetained(future);
+            }
+        }
+    }
+
+    private void stop() {
+        applyPending();
+        final List<Runnable> tasks = new ArrayList<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            final TimerFuture<?> future = wheelFutures[slot];
+            if (future != null) {
+                wheel.cancelTimer(future.timerId);
+                removeFromWheel(future);
+                if (future.cancel(false)) {
+                    tasks.add(future);
+                }
+            }
+        }
+        for (TimerFuture<?> future = scheduled.getAndSet(null); future != null; future = future.nextScheduled) {
+            if (future.cancel(false)) {
+                tasks.add(future);
+            }
+        }
+        neverRun = tasks;
+    }
+
+    private static final class TimerFuture<V> implements RunnableScheduledFuture<V> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicLongFieldUpdater<TimerFuture> STAMP =
+                AtomicLongFieldUpdater.newUpdater(TimerFuture.class, "stamp");
+
+        private final WheelScheduledExecutor executor;
+        /**
+         * generation | state, the generation is bumped each time the future is recycled
+         */
+        private volatile long stamp;
+        private Runnable runnable;
+        private Callable<V> callable;
+        private long deadlineNanos;
+        private long period;
+        private Object outcome;
+        private volatile Thread runner;
+        private TimerFuture<?> nextScheduled;
+        private TimerFuture<?> nextCancelled;
+        private TimerFuture<?> nextDone;
+
+        /*
+         * owned by the tick thread
+         */
+        private int timerId = NOT_SCHEDULED;
+        private int slot;
+        private boolean scheduleSeen;
+        private boolean cancelSeen;
+        private boolean dispatched;
+        private boolean retained;
+        /**
+         * threads in get, guarded by the monitor
+         */
+        private int waiters;
+
+        private TimerFuture(WheelScheduledExecutor executor) {
+            this.executor = executor;
+        }
+
+        private long generation() {
+            return stamp & ~STATE_MASK;
+        }
+
+        private int state() {
+            return (int) (stamp & STATE_MASK);
+        }
+
+        /**
+         * state of the task of @generation, a recycled future was cancelled by its caller
+         */
+        private int state(long generation) {
+            final long current = stamp;
+            return (current & ~STATE_MASK) == generation ? (int) (current & STATE_MASK) : CANCELLED;
+        }
+
+        private boolean transition(long generation, int from, int to) {
+            return STAMP.compareAndSet(this, generation | from, generation | to);
+        }
+
+        /**
+         * pushes to the done stack last, after which the future may be recycled
+         */
+        @Override
+        public void run() {
+            final long generation = generation();
+            if (!transition(generation, NEW, RUNNING)) {
+                executor.pushDone(this, false);
+                return;
+            }
+            runner = Thread.currentThread();
+            boolean rescheduled = false;
+            try {
+                if (period != 0) {
+                    runnable.run();
+                    deadlineNanos = period > 0 ? deadlineNanos + period : System.nanoTime() - period;
+                    rescheduled = transition(generation, RUNNING, NEW);
+                } else if (callable != null) {
+                    final V result = callable.call();
+                    runner = null;
+                    complete(COMPLETED, result);
+                } else {
+                    runnable.run();
+                    runner = null;
+                    complete(COMPLETED, null);
+                }
+            } catch (Throwable t) {
+                runner = null;
+                complete(FAILED, t);
+            }
+            runner = null;
+            executor.pushDone(this, rescheduled);
+        }
+
+        private void complete(int terminalState, Object outcome) {
+            this.outcome = outcome;
+            final long generation = generation();
+            if (transition(generation, RUNNING, terminalState) || transition(generation, NEW, terminalState)) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return cancel(generation(), mayInterruptIfRunning);
+        }
+
+        /**
+         * running tasks are interrupted when @mayInterruptIfRunning, the cancel is applied by the tick thread
+         * @return false once the future moved past @generation
+         */
+        private boolean cancel(long generation, boolean mayInterruptIfRunning) {
+            final boolean wasRunning;
+            if (transition(generation, NEW, CANCELLED)) {
+                wasRunning = false;
+            } else if (transition(generation, RUNNING, CANCELLED)) {
+                wasRunning = true;
+            } else {
+                return false;
+            }
+            if (wasRunning && mayInterruptIfRunning) {
+                final Thread thread = runner;
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+            executor.pushCancelled(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state() == CANCELLED;
+        }
+
+        @Override
+        public boolean isDone() {
+            return state() >= COMPLETED;
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            return get(generation());
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return get(generation(), timeout, unit);
+        }
+
+        /**
+         * a counted waiter keeps the future from being recycled, so @generation holds until it returns
+         */
+        private V get(long generation) throws InterruptedException, ExecutionException {
+            synchronized (this) {
+                waiters++;
+                try {
+                    while (state(generation) < COMPLETED) {
+                        wait();
+                    }
+                    return outcome(generation);
+                } finally {
+                    waiters--;
+                }
+            }
+        }
+
+        private V get(long generation, long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (this) {
+                waiters++;
+                try {
+                    while (state(generation) < COMPLETED) {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new TimeoutException();
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                    return outcome(generation);
+                } finally {
+                    waiters--;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private V outcome(long generation) throws ExecutionException {
+            final int s = state(generation);
+            if (s == CANCELLED) {
+                throw new CancellationException();
+            }
+            if (s == FAILED) {
+                throw new ExecutionException((Throwable) outcome);
+            }
+            return (V) outcome;
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other instanceof TimerFuture) {
+                return Long.compare(deadlineNanos - ((TimerFuture<?>) other).deadlineNanos, 0);
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        /**
+         * a thread woken in get by the cancel may not have read the outcome yet, reset under the monitor so
+         * a get either is counted or comes after the reset
+         * @return false if a thread is in get
+         */
+        private synchronized boolean resetUnlessAwaited() {
+            if (waiters != 0) {
+                return false;
+            }
+            reset();
+            return true;
+        }
+
+        private void reset() {
+            runnable = null;
+            callable = null;
+            outcome = null;
+            nextScheduled = null;
+            nextCancelled = null;
+            nextDone = null;
+            scheduleSeen = false;
+            cancelSeen = false;
+            stamp = generation() + (1L << STATE_BITS) | NEW;
+        }
+    }
+
+    /**
+     * handed out in place of a pooled future, acts on the task of @generation only, once the future is
+     * recycled for another schedule the handle reads as cancelled
+     */
+    private static final class FutureHandle<V> implements ScheduledFuture<V> {
+        private final TimerFuture<V> future;
+        private final long generation;
+
+        private FutureHandle(TimerFuture<V> future, long generation) {
+            this.future = future;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(generation, mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.state(generation) == CANCELLED;
+        }
+
+        @Override
+        public boolean isDone() {
+            return future.state(generation) >= COMPLETED;
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            return future.get(generation);
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return future.get(generation, timeout, unit);
+        }
+
+        /**
+         * 0 once the task was recycled, it was cancelled
+         */
+        @Override
+        public long getDelay(TimeUnit unit) {
+            final long delay = future.getDelay(unit);
+            return future.generation() == generation ? delay : 0;
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
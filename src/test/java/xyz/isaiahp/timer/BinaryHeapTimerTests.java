@@ -0,0 +1,156 @@
+package xyz.isaiahp.timer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class BinaryHeapTimerTests {
+
+    @Test
+    public void testExpireInDeadlineOrder() {
+        long startTime = System.currentTimeMillis();
+        BinaryHeapTimer timer = new BinaryHeapTimer(startTime, 4);
+        Random random = new Random(42);
+        int LIMIT = 1000;
+        long[] deadlineById = new long[LIMIT];
+        for (int i = 0; i < LIMIT; i++) {
+            long deadline = startTime + 1 + random.nextInt(5000);
+            int timerId = timer.scheduleTimeout(deadline);
+            Assertions.assertTrue(timerId >= 0);
+            deadlineById[timerId] = deadline;
+        }
+        Assertions.assertEquals(LIMIT, timer.count());
+        final long[] lastDeadline = {startTime};
+        int expired = 0;
+        for (long now = startTime + 1; now <= startTime + 5000; now += 7) {
+            expired += timer.pollTimeouts(now, (timeUnit, time, timerId) -> {
+                Assertions.assertTrue(deadlineById[timerId] <= time);
+                Assertions.assertTrue(lastDeadline[0] <= deadlineById[timerId]);
+                lastDeadline[0] = deadlineById[timerId];
+            });
+        }
+        expired += timer.pollTimeouts(startTime + 5001, (timeUnit, time, timerId) -> {
+        });
+        Assertions.assertEquals(LIMIT, expired);
+        Assertions.assertEquals(0, timer.count());
+        Assertions.assertEquals(Long.MAX_VALUE, timer.nextDeadline());
+    }
+
+    @Test
+    public void testCancelTimeout() {
+        long startTime = System.currentTimeMillis();
+        BinaryHeapTimer timer = new BinaryHeapTimer(TimeUnit.MILLISECONDS, startTime, 16, 2);
+        int[] ids = new int[64];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = timer.scheduleTimeout(startTime + 100 + i);
+            Assertions.assertTrue(ids[i] >= 0);
+        }
+        for (int i = 0; i < ids.length; i += 2) {
+            Assertions.assertTrue(timer.cancelTimer(ids[i]));
+            Assertions.assertFalse(timer.cancelTimer(ids[i]));
+        }
+        Assertions.assertEquals(32, timer.count());
+        final int count = timer.pollTimeouts(startTime + 200, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(1, timerId & 1);
+        });
+        Assertions.assertEquals(32, count);
+        Assertions.assertFalse(timer.cancelTimer(ids[1]));
+        Assertions.assertFalse(timer.cancelTimer(-1));
+    }
+
+    @Test
+    public void testScheduleExpired() {
+        long startTime = System.currentTimeMillis();
+        BinaryHeapTimer timer = new BinaryHeapTimer(startTime, 4);
+        Assertions.assertEquals(TimeOut.ERR_EXPIRED, timer.scheduleTimeout(startTime));
+        timer.pollTimeouts(startTime + 10, (timeUnit, now, timerId) -> {
+        });
+        Assertions.assertEquals(TimeOut.ERR_EXPIRED, timer.scheduleTimeout(startTime + 10));
+        Assertions.assertTrue(timer.scheduleTimeout(startTime + 11) >= 0);
+    }
+
+    @Test
+    public void testScheduleTimeoutDuringCallBack() {
+        long startTime = System.currentTimeMillis();
+        BinaryHeapTimer timer = new BinaryHeapTimer(startTime, 1);
+        Assertions.assertTrue(timer.scheduleTimeout(startTime + 5) >= 0);
+        int expired = timer.pollTimeouts(startTime + 5, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(TimeOut.ERR_EXPIRED, timer.scheduleTimeout(now));
+            Assertions.assertTrue(timer.scheduleTimeout(now + 5) >= 0);
+        });
+        Assertions.assertEquals(1, expired);
+        Assertions.assertEquals(1, timer.count());
+        Assertions.assertEquals(1, timer.pollTimeouts(startTime + 10, (timeUnit, now, timerId) -> {
+        }));
+    }
+
+    @Test
+    public void testIdsRecycledWithinCapacity() {
+        long startTime = System.currentTimeMillis();
+        BinaryHeapTimer timer = new BinaryHeapTimer(startTime, 8);
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 8; i++) {
+                int id = timer.scheduleTimeout(startTime + 1000 - i);
+                Assertions.assertTrue(id >= 0 && id < 8);
+            }
+            for (int id = 0; id < 8; id++) {
+                Assertions.assertTrue(timer.cancelTimer(id));
+            }
+        }
+        Assertions.assertEquals(0, timer.count());
+    }
+
+    @Test
+    public void testAttachmentPassedOnExpiry() {
+        long startTime = System.currentTimeMillis();
+        BinaryHeapTimer timer = new BinaryHeapTimer(startTime, 2);
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertTrue(timer.scheduleTimeout(startTime + 10 - i, 100L + i) >= 0);
+        }
+        final long[] expected = {109L};
+        Assertions.assertEquals(10, timer.pollTimeouts(startTime + 10, (timeUnit, now, timerId, attachment) -> {
+            Assertions.assertEquals(expected[0]--, attachment);
+        }));
+    }
+
+    @Test
+    public void testReschedule() {
+        BinaryHeapTimer timer = new BinaryHeapTimer(0, 4);
+        final int first = timer.scheduleTimeout(100);
+        final int second = timer.scheduleTimeout(200);
+        Assertions.assertTrue(timer.rescheduleTimeout(first, 300));
+        Assertions.assertEquals(200, timer.nextDeadline());
+        Assertions.assertTrue(timer.rescheduleTimeout(second, 50));
+        Assertions.assertEquals(50, timer.nextDeadline());
+        Assertions.assertEquals(1, timer.pollTimeouts(250, (timeUnit, now, timerId) -> Assertions.assertEquals(second, timerId)));
+        Assertions.assertFalse(timer.rescheduleTimeout(second, 400));
+        Assertions.assertEquals(1, timer.pollTimeouts(300, (timeUnit, now, timerId) -> Assertions.assertEquals(first, timerId)));
+    }
+
+    @Test
+    public void testRescheduleToPassedDeadlineRefused() {
+        BinaryHeapTimer timer = new BinaryHeapTimer(0, 4);
+        final int timerId = timer.scheduleTimeout(200);
+        Assertions.assertEquals(0, timer.pollTimeouts(100, (timeUnit, now, id) -> Assertions.fail("early " + id)));
+        Assertions.assertFalse(timer.rescheduleTimeout(timerId, 100));
+        Assertions.assertFalse(timer.rescheduleTimeout(timerId, 50));
+        Assertions.assertEquals(200, timer.nextDeadline());
+        Assertions.assertTrue(timer.rescheduleTimeout(timerId, 101));
+        Assertions.assertEquals(1, timer.pollTimeouts(101, (timeUnit, now, id) -> Assertions.assertEquals(timerId, id)));
+    }
+
+    @Test
+    public void testBoundedPoll() {
+        BinaryHeapTimer timer = new BinaryHeapTimer(0, 4);
+        for (int i = 1; i <= 10; i++) {
+            timer.scheduleTimeout(i);
+        }
+        Assertions.assertEquals(4, timer.pollTimeouts(100, (timeUnit, now, timerId) -> {
+        }, 4));
+        Assertions.assertEquals(5, timer.nextDeadline());
+        Assertions.assertEquals(6, timer.pollTimeouts(100, (timeUnit, now, timerId) -> {
+        }, 100));
+    }
+}
@@ -0,0 +1,107 @@
+package xyz.isaiahp.timer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ConcurrentTimeOutTests {
+
+    @Test
+    public void testCommandsAppliedOnPoll() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 32, 2048, 64);
+        ConcurrentTimeOut timeout = new ConcurrentTimeOut(wheel, 16, 64);
+        final int id = timeout.scheduleTimeout(startTime + 100, 5L);
+        final int cancelledId = timeout.scheduleTimeout(startTime + 100);
+        final int movedId = timeout.scheduleTimeout(startTime + 100);
+        Assertions.assertTrue(id >= 0 && cancelledId >= 0 && movedId >= 0);
+        Assertions.assertTrue(timeout.cancelTimer(cancelledId));
+        Assertions.assertTrue(timeout.rescheduleTimeout(movedId, startTime + 500));
+        Assertions.assertEquals(0, wheel.count());
+
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 200, (timeUnit, now, timerId, attachment) -> {
+            Assertions.assertEquals(id, timerId);
+            Assertions.assertEquals(5L, attachment);
+        }));
+        Assertions.assertEquals(1, wheel.count());
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 600, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(movedId, timerId);
+        }));
+    }
+
+    @Test
+    public void testStaleCancelAfterIdRecycled() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 32, 2048, 64);
+        ConcurrentTimeOut timeout = new ConcurrentTimeOut(wheel, 16, 1);
+        final int id = timeout.scheduleTimeout(startTime + 100);
+        Assertions.assertEquals(BitsetTimeWheel.ERR_CAPACITY_EXCEEDED, timeout.scheduleTimeout(startTime + 100));
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 200, (timeUnit, now, timerId) -> {
+        }));
+        final int recycled = timeout.scheduleTimeout(startTime + 300);
+        Assertions.assertTrue(recycled >= 0);
+        Assertions.assertNotEquals(id, recycled);
+        timeout.cancelTimer(id);
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 400, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(recycled, timerId);
+        }));
+    }
+
+    @Test
+    public void testRejectedScheduleReleasesId() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 32, 2048, 64);
+        final int[] rejected = {0};
+        ConcurrentTimeOut timeout = new ConcurrentTimeOut(wheel, 16, 1, (timerId, attachment, errorCode) -> {
+            Assertions.assertEquals(TimeOut.ERR_OUT_OF_RANGE, errorCode);
+            Assertions.assertEquals(9L, attachment);
+            rejected[0]++;
+        });
+        Assertions.assertTrue(timeout.scheduleTimeout(startTime + 100_000, 9L) >= 0);
+        timeout.pollTimeouts(startTime + 1, (timeUnit, now, timerId) -> {
+        });
+        Assertions.assertEquals(1, rejected[0]);
+        Assertions.assertTrue(timeout.scheduleTimeout(startTime + 100) >= 0);
+    }
+
+    @Test
+    public void testManyProducers() throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 1, 1024, 64 * 64, 1, 64 * 1024);
+        ConcurrentTimeOut timeout = new ConcurrentTimeOut(wheel, 256, 1 << 16);
+        final int PRODUCERS = 4;
+        final int PER_PRODUCER = 20_000;
+        final CountDownLatch done = new CountDownLatch(PRODUCERS);
+        final AtomicBoolean failed = new AtomicBoolean();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final long producer = p;
+            new Thread(() -> {
+                for (int i = 0; i < PER_PRODUCER; i++) {
+                    int id = timeout.scheduleTimeout(startTime + 500, producer);
+                    while (id < 0) {
+                        Thread.onSpinWait();
+                        id = timeout.scheduleTimeout(startTime + 500, producer);
+                    }
+                    if ((i & 1) == 0 && !timeout.cancelTimer(id)) {
+                        failed.set(true);
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        final long[] expiredPerProducer = new long[PRODUCERS];
+        final TimeOut.AttachmentHandler handler = (timeUnit, now, timerId, attachment) -> expiredPerProducer[(int) attachment]++;
+        while (done.getCount() > 0) {
+            timeout.pollTimeouts(startTime, handler);
+        }
+        timeout.pollTimeouts(startTime + 1000, handler);
+        Assertions.assertFalse(failed.get());
+        for (int p = 0; p < PRODUCERS; p++) {
+            Assertions.assertEquals(PER_PRODUCER / 2, expiredPerProducer[p]);
+        }
+        Assertions.assertEquals(0, wheel.count());
+    }
+}
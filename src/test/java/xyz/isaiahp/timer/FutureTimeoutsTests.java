@@ -0,0 +1,138 @@
+package xyz.isaiahp.timer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class FutureTimeoutsTests {
+
+    private static FutureTimeouts newTimeouts(long startTime, int maxTimeouts) {
+        return new FutureTimeouts(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64, maxTimeouts, 64);
+    }
+
+    private static void assertTimedOut(CompletableFuture<?> future) {
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, future::get);
+        Assertions.assertTrue(e.getCause() instanceof TimeoutException);
+    }
+
+    @Test
+    public void testOrTimeout() throws Exception {
+        long startTime = 0;
+        FutureTimeouts timeouts = newTimeouts(startTime, 16);
+        CompletableFuture<String> future = timeouts.orTimeout(new CompletableFuture<>(), 100, TimeUnit.MILLISECONDS);
+        Assertions.assertEquals(0, timeouts.pollTimeouts(startTime + 100));
+        Assertions.assertFalse(future.isDone());
+        Assertions.assertEquals(1, timeouts.pollTimeouts(startTime + 200));
+        assertTimedOut(future);
+
+        CompletableFuture<String> value = timeouts.completeOnTimeout(new CompletableFuture<>(), "late", 1, TimeUnit.SECONDS);
+        Assertions.assertEquals(1, timeouts.pollTimeouts(startTime + 1300));
+        Assertions.assertEquals("late", value.get());
+    }
+
+    @Test
+    public void testCompletionCancelsTimer() throws Exception {
+        long startTime = 0;
+        FutureTimeouts timeouts = newTimeouts(startTime, 4);
+        for (int round = 0; round < 8; round++) {
+            final long now = startTime + round * 200;
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(timeouts.orTimeout(new CompletableFuture<>(), 50, TimeUnit.MILLISECONDS));
+            }
+            futures.get(0).complete(1);
+            futures.get(1).complete(2);
+            //the cancels release their ids, every round fits in the 4 ids of the wheel
+            Assertions.assertEquals(2, timeouts.pollTimeouts(now + 100));
+            Assertions.assertEquals(1, (int) futures.get(0).get());
+            Assertions.assertEquals(2, (int) futures.get(1).get());
+            assertTimedOut(futures.get(2));
+            assertTimedOut(futures.get(3));
+            Assertions.assertEquals(0, timeouts.pollTimeouts(now + 199));
+        }
+    }
+
+    @Test
+    public void testSaturatedTimeoutNeverFires() {
+        long startTime = 0;
+        FutureTimeouts timeouts = newTimeouts(startTime, 16);
+        CompletableFuture<String> future = timeouts.orTimeout(new CompletableFuture<>(), Long.MAX_VALUE, TimeUnit.SECONDS);
+        Assertions.assertEquals(0, timeouts.pollTimeouts(startTime + 2000));
+        Assertions.assertFalse(future.isDone());
+        future.complete("done");
+    }
+
+    @Test
+    public void testFallsBackToJdkTimeout() throws Exception {
+        long startTime = 0;
+        FutureTimeouts timeouts = newTimeouts(startTime, 1);
+        CompletableFuture<String> held = timeouts.orTimeout(new CompletableFuture<>(), 100, TimeUnit.MILLISECONDS);
+        //out of ids and beyond range, timed out in real time with no poll
+        CompletableFuture<String> noId = timeouts.orTimeout(new CompletableFuture<>(), 10, TimeUnit.MILLISECONDS);
+        CompletableFuture<String> farOut = timeouts.completeOnTimeout(new CompletableFuture<>(), "far", 10, TimeUnit.SECONDS);
+        assertTimedOut(noId);
+        Assertions.assertFalse(held.isDone());
+        Assertions.assertFalse(farOut.isDone());
+        farOut.complete("done");
+        Assertions.assertEquals("done", farOut.get());
+    }
+
+    @Test
+    public void testConcurrentAttachAndComplete() throws Exception {
+        long startTime = 0;
+        final FutureTimeouts timeouts = new FutureTimeouts(TimeUnit.MILLISECONDS, startTime, 1, 1024, 1024, 1 << 12, 1 << 12);
+        final int PER_THREAD = 20_000;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] threads = new Thread[4];
+        final CompletableFuture<?>[][] futures = new CompletableFuture<?>[threads.length][PER_THREAD];
+        final boolean[][] completed = new boolean[threads.length][PER_THREAD];
+        for (int t = 0; t < threads.length; t++) {
+            final CompletableFuture<?>[] owned = futures[t];
+            final boolean[] ownedCompleted = completed[t];
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    final CompletableFuture<Integer> future = new CompletableFuture<>();
+                    timeouts.orTimeout(future, 1 + (i & 15), TimeUnit.MILLISECONDS);
+                    owned[i] = future;
+                    if ((i & 1) == 0) {
+                        //the simulated clock runs fast, the timeout may win
+                        ownedCompleted[i] = future.complete(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        Thread poller = new Thread(() -> {
+            long now = startTime;
+            while (running.get()) {
+                timeouts.pollTimeouts(++now);
+            }
+            //expire everything left
+            timeouts.pollTimeouts(now + 1100);
+        });
+        poller.start();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        running.set(false);
+        poller.join();
+        for (int t = 0; t < threads.length; t++) {
+            final CompletableFuture<?>[] owned = futures[t];
+            for (int i = 0; i < PER_THREAD; i++) {
+                if (completed[t][i]) {
+                    Assertions.assertEquals(i, owned[i].getNow(null));
+                } else {
+                    //waits on those that fell back to the JDK when producers outran the ids
+                    assertTimedOut(owned[i]);
+                }
+            }
+        }
+    }
+}
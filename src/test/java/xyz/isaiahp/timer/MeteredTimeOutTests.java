@@ -0,0 +1,132 @@
+package xyz.isaiahp.timer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MeteredTimeOutTests {
+
+    @Test
+    public void testCounters() {
+        long startTime = 1000;
+        BitsetTimeWheel wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        MeteredTimeOut timeout = new MeteredTimeOut(wheel);
+        int[] ids = new int[64];
+        for (int i = 0; i < 64; i++) {
+            ids[i] = timeout.scheduleTimeout(startTime + 100);
+            Assertions.assertTrue(ids[i] >= 0);
+        }
+        Assertions.assertEquals(TimeOut.ERR_CAPACITY_EXCEEDED, timeout.scheduleTimeout(startTime + 100));
+        Assertions.assertEquals(TimeOut.ERR_OUT_OF_RANGE, timeout.scheduleTimeout(startTime + 100_000));
+        Assertions.assertEquals(TimeOut.ERR_EXPIRED, timeout.scheduleTimeout(startTime - 1));
+        final int moved = timeout.scheduleTimeout(startTime + 200);
+        Assertions.assertTrue(timeout.rescheduleTimeout(moved, startTime + 300));
+        Assertions.assertTrue(timeout.cancelTimer(ids[0]));
+        Assertions.assertFalse(timeout.cancelTimer(ids[0]));
+        Assertions.assertEquals(2, timeout.cancelTimers(new int[]{ids[1], ids[2], ids[1]}, 3));
+        Assertions.assertEquals(61, timeout.pollTimeouts(startTime + 150, (timeUnit, now, timerId) -> {
+        }));
+
+        MeteredTimeOut.Snapshot snapshot = timeout.snapshot(timeout.newSnapshot());
+        Assertions.assertEquals(65, snapshot.counter(MeteredTimeOut.SCHEDULED));
+        Assertions.assertEquals(3, snapshot.counter(MeteredTimeOut.CANCELLED));
+        Assertions.assertEquals(1, snapshot.counter(MeteredTimeOut.RESCHEDULED));
+        Assertions.assertEquals(61, snapshot.counter(MeteredTimeOut.EXPIRED));
+        Assertions.assertEquals(1, snapshot.counter(MeteredTimeOut.POLLS));
+        Assertions.assertEquals(1, snapshot.counter(MeteredTimeOut.REJECTED_CAPACITY_EXCEEDED));
+        Assertions.assertEquals(1, snapshot.counter(MeteredTimeOut.REJECTED_OUT_OF_RANGE));
+        Assertions.assertEquals(1, snapshot.counter(MeteredTimeOut.REJECTED_EXPIRED));
+        Assertions.assertEquals(64, snapshot.maxOccupancy());
+        Assertions.assertEquals(64, snapshot.occupancyHighWater(wheel.bucketOf(startTime + 100)));
+        Assertions.assertEquals(1, snapshot.occupancyHighWater(wheel.bucketOf(startTime + 200)));
+    }
+
+    @Test
+    public void testOccupancyFollowsCancelAndExpiry() {
+        long startTime = 0;
+        BitsetTimeWheel wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        MeteredTimeOut timeout = new MeteredTimeOut(wheel);
+        final int bucket = wheel.bucketOf(startTime + 100);
+        int[] ids = new int[10];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = timeout.scheduleTimeout(startTime + 100);
+        }
+        Assertions.assertTrue(timeout.cancelTimer(ids[0]));
+        Assertions.assertEquals(4, timeout.cancelTimers(ids, 5));
+        for (int i = 0; i < 3; i++) {
+            timeout.scheduleTimeout(startTime + 100);
+        }
+        MeteredTimeOut.Snapshot snapshot = timeout.newSnapshot();
+        //8 timers left in the bucket, the high water stays at 10
+        Assertions.assertEquals(10, timeout.snapshot(snapshot).occupancyHighWater(bucket));
+        //moved out of the bucket and back in
+        Assertions.assertTrue(timeout.rescheduleTimeout(ids[5], startTime + 300));
+        Assertions.assertTrue(timeout.rescheduleTimeout(ids[5], startTime + 100));
+        Assertions.assertEquals(10, timeout.snapshot(snapshot).occupancyHighWater(bucket));
+        Assertions.assertEquals(8, timeout.pollTimeouts(startTime + 150, (timeUnit, now, timerId) -> {
+        }));
+        //a lap later the bucket counts from empty
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 2048 + 16, (timeUnit, now, timerId) -> {
+        }));
+        for (int i = 0; i < 12; i++) {
+            timeout.scheduleTimeout(startTime + 2048 + 100);
+        }
+        Assertions.assertEquals(bucket, wheel.bucketOf(startTime + 2048 + 100));
+        Assertions.assertEquals(12, timeout.snapshot(snapshot).occupancyHighWater(bucket));
+    }
+
+    @Test
+    public void testLagAndJitterHistograms() {
+        long startTime = 0;
+        MeteredTimeOut timeout = new MeteredTimeOut(new BinaryHeapTimer(startTime, 16), 64);
+        timeout.scheduleTimeout(100);
+        timeout.scheduleTimeout(130);
+        timeout.pollTimeouts(50, (timeUnit, now, timerId) -> {
+        });
+        //first fires 40 late, second 10 late
+        Assertions.assertEquals(2, timeout.pollTimeouts(140, (timeUnit, now, timerId) -> {
+        }));
+        MeteredTimeOut.Snapshot snapshot = timeout.snapshot(timeout.newSnapshot());
+        Assertions.assertEquals(1, snapshot.pollLag(MeteredTimeOut.histogramBucket(90)));
+        Assertions.assertEquals(1, snapshot.expiryJitter(MeteredTimeOut.histogramBucket(40)));
+        Assertions.assertEquals(1, snapshot.expiryJitter(MeteredTimeOut.histogramBucket(10)));
+        Assertions.assertEquals(0, snapshot.buckets());
+        Assertions.assertTrue(90 < MeteredTimeOut.histogramUpperBound(MeteredTimeOut.histogramBucket(90)));
+        Assertions.assertTrue(90 >= MeteredTimeOut.histogramUpperBound(MeteredTimeOut.histogramBucket(90) - 1));
+    }
+
+    @Test
+    public void testSnapshotFromAnotherThread() throws InterruptedException {
+        long startTime = 0;
+        MeteredTimeOut timeout = new MeteredTimeOut(
+                new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 1, 1024, 64 * 64, 1, 64 * 1024));
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean failed = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            MeteredTimeOut.Snapshot snapshot = timeout.newSnapshot();
+            long lastScheduled = 0;
+            while (running.get()) {
+                timeout.snapshot(snapshot);
+                if (snapshot.counter(MeteredTimeOut.SCHEDULED) < lastScheduled) {
+                    failed.set(true);
+                }
+                lastScheduled = snapshot.counter(MeteredTimeOut.SCHEDULED);
+            }
+        });
+        reader.start();
+        long now = startTime;
+        for (int i = 0; i < 200_000; i++) {
+            timeout.scheduleTimeout(now + 1 + (i & 511));
+            if ((i & 63) == 0) {
+                timeout.pollTimeouts(++now, (timeUnit, time, timerId) -> {
+                });
+            }
+        }
+        running.set(false);
+        reader.join();
+        Assertions.assertFalse(failed.get());
+        Assertions.assertEquals(200_000, timeout.snapshot(timeout.newSnapshot()).counter(MeteredTimeOut.SCHEDULED));
+    }
+}
@@ -0,0 +1,99 @@
+package xyz.isaiahp.timer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ShardedTimeOutTests {
+
+    private static ShardedTimeOut newService(long startTime, int shards) {
+        return new ShardedTimeOut(shards,
+                shard -> new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 32, 2048, 64), 16);
+    }
+
+    @Test
+    public void testShardEncodedInTimerId() {
+        long startTime = System.currentTimeMillis();
+        ShardedTimeOut service = newService(startTime, 4);
+        for (int i = 0; i < 4; i++) {
+            final ShardedTimeOut.Shard shard = service.shard(i);
+            final int timerId = shard.scheduleTimeout(startTime + 100);
+            Assertions.assertTrue(timerId >= 0);
+            Assertions.assertEquals(i, service.shardOf(timerId));
+            final long handle = shard.scheduleTimeoutHandle(startTime + 100, 0L);
+            Assertions.assertTrue(handle >= 0);
+            Assertions.assertEquals(i, service.shardOfHandle(handle));
+        }
+        Assertions.assertEquals(8, service.count());
+        final int shardIndex = 2;
+        Assertions.assertEquals(2, service.shard(shardIndex).pollTimeouts(startTime + 200, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(shardIndex, service.shardOf(timerId));
+        }));
+        Assertions.assertEquals(6, service.count());
+    }
+
+    @Test
+    public void testRoutedCancel() {
+        long startTime = System.currentTimeMillis();
+        ShardedTimeOut service = newService(startTime, 2);
+        final ShardedTimeOut.Shard owner = service.shard(0);
+        final ShardedTimeOut.Shard other = service.shard(1);
+        final int timerId = owner.scheduleTimeout(startTime + 100);
+        final long handle = owner.scheduleTimeoutHandle(startTime + 100, 0L);
+        final int kept = owner.scheduleTimeout(startTime + 100);
+
+        Assertions.assertTrue(other.cancelTimer(timerId));
+        Assertions.assertTrue(service.cancelHandle(handle));
+        //applied on the owner's next poll
+        Assertions.assertEquals(3, owner.count());
+        Assertions.assertEquals(1, owner.pollTimeouts(startTime + 200, (timeUnit, now, expiredId) -> {
+            Assertions.assertEquals(kept, expiredId);
+        }));
+
+        //stale handle routed after the slot was reused is a no-op
+        owner.scheduleTimeoutHandle(startTime + 100 + 4096, 0L);
+        final long reused = owner.scheduleTimeoutHandle(startTime + 100 + 4096, 0L);
+        Assertions.assertEquals(BitsetTimeWheel.handleTimerId(handle), BitsetTimeWheel.handleTimerId(reused));
+        Assertions.assertTrue(service.cancelHandle(handle));
+        Assertions.assertEquals(2, owner.pollTimeouts(startTime + 300 + 4096, (timeUnit, now, expiredId) -> {
+        }));
+    }
+
+    @Test
+    public void testFullCancelRingsDoNotDeadlock() throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+        final ShardedTimeOut service = newService(startTime, 2);
+        final int LIMIT = 10_000;
+        final AtomicLong expired = new AtomicLong();
+        final AtomicInteger finished = new AtomicInteger();
+        Thread[] threads = new Thread[2];
+        for (int s = 0; s < 2; s++) {
+            final ShardedTimeOut.Shard shard = service.shard(s);
+            final ShardedTimeOut.Shard peer = service.shard(1 - s);
+            threads[s] = new Thread(() -> {
+                //flood the peer ring with cancels of ids it never issued
+                for (int i = 0; i < LIMIT; i++) {
+                    shard.cancelTimer(peer.index() << 30 | 63);
+                    shard.scheduleTimeout(startTime + 100);
+                    if ((i & 63) == 0) {
+                        shard.pollTimeouts(startTime + 200, (timeUnit, now, timerId) -> expired.incrementAndGet());
+                    }
+                }
+                //keep draining routed cancels until the peer is done flooding this ring
+                finished.incrementAndGet();
+                while (finished.get() < 2) {
+                    shard.pollTimeouts(startTime + 200, (timeUnit, now, timerId) -> expired.incrementAndGet());
+                }
+            });
+            threads[s].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10_000);
+            Assertions.assertFalse(thread.isAlive());
+        }
+        Assertions.assertTrue(expired.get() > 0);
+    }
+}
@@ -3,6 +3,18 @@ package xyz.isaiahp.timer;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 public class TimeOutTests {
@@ -211,4 +223,1258 @@ public class TimeOutTests {
             Assertions.assertEquals(timeoutId, timerId);
         }));
     }
+
+    @Test
+    public void testCascadeFarTimeout() {
+        long startTime = System.currentTimeMillis();
+        long resolution = 16;
+        long maxTimeInterval = 1024;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, resolution, maxTimeInterval, 64, 3);
+        //fine wheel has 128 ticks, three levels cover 128^3 ticks
+        Assertions.assertEquals(BitsetTimeWheel.ERR_OUT_OF_RANGE, timeout.scheduleTimeout(startTime + 128L * 128 * 128 * resolution));
+        final long deadline = startTime + 3_600_000;
+        int timeoutId = timeout.scheduleTimeout(deadline);
+        Assertions.assertTrue(timeoutId >= 0);
+
+        Assertions.assertEquals(0, timeout.pollTimeouts(deadline, (timeUnit, now, timerId) -> {
+            throw new IllegalStateException("fired early " + timerId);
+        }));
+        Assertions.assertEquals(1, timeout.count());
+        Assertions.assertEquals(1, timeout.pollTimeouts(deadline + resolution, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(timeoutId, timerId);
+        }));
+        Assertions.assertEquals(0, timeout.count());
+    }
+
+    @Test
+    public void testCascadeKeepsIdsAndOrder() {
+        long startTime = System.currentTimeMillis();
+        long resolution = 16;
+        long maxTimeInterval = 1024;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, resolution, maxTimeInterval, 512, 3);
+        Random random = new Random(7);
+        int LIMIT = 500;
+        long range = 600_000;
+        long[] deadlines = new long[LIMIT];
+        int[] ids = new int[LIMIT];
+        Map<Integer, Long> pending = new HashMap<>();
+        for (int i = 0; i < LIMIT; i++) {
+            deadlines[i] = startTime + resolution + (long) (random.nextDouble() * range);
+            ids[i] = timeout.scheduleTimeout(deadlines[i]);
+            Assertions.assertTrue(ids[i] >= 0);
+            Assertions.assertNull(pending.put(ids[i], deadlines[i]));
+        }
+        int cancelled = 0;
+        long previous = startTime;
+        for (long now = startTime + 1000; now <= startTime + range + 2000; now += 1000) {
+            final long lastPoll = previous;
+            timeout.pollTimeouts(now, (timeUnit, time, timerId) -> {
+                Long deadline = pending.remove(timerId);
+                Assertions.assertNotNull(deadline);
+                Assertions.assertTrue(deadline < time, "fired early");
+                Assertions.assertTrue(deadline >= lastPoll - resolution, "fired late");
+            });
+            previous = now;
+            //cancel a few timers that have already cascaded to lower levels
+            for (int i = 0; i < LIMIT; i += 37) {
+                if (pending.containsKey(ids[i]) && deadlines[i] - now < 5000) {
+                    Assertions.assertTrue(timeout.cancelTimer(ids[i]));
+                    Assertions.assertFalse(timeout.cancelTimer(ids[i]));
+                    pending.remove(ids[i]);
+                    cancelled++;
+                }
+            }
+        }
+        Assertions.assertTrue(cancelled > 0);
+        Assertions.assertTrue(pending.isEmpty());
+        Assertions.assertEquals(0, timeout.count());
+    }
+
+    @Test
+    public void testBurstSpillsIntoOverflowPool() {
+        long startTime = System.currentTimeMillis();
+        long resolution = 32;
+        long maxTimeInterval = 2048;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, resolution, maxTimeInterval,
+                64, 1, 256);
+        final long deadline = startTime + 100;
+        Set<Integer> ids = new HashSet<>();
+        for (int round = 0; round < 3; round++) {
+            final long roundDeadline = deadline + round * maxTimeInterval;
+            for (int j = 0; j < 64 + 256; j++) {
+                int id = timeout.scheduleTimeout(roundDeadline);
+                Assertions.assertTrue(id >= 0);
+                Assertions.assertTrue(ids.add(id));
+            }
+            //pool exhausted
+            Assertions.assertEquals(BitsetTimeWheel.ERR_CAPACITY_EXCEEDED, timeout.scheduleTimeout(roundDeadline));
+            final int spilledId = ids.stream().mapToInt(Integer::intValue).max().getAsInt();
+            Assertions.assertTrue(timeout.cancelTimer(spilledId));
+            ids.remove(spilledId);
+
+            int expired = timeout.pollTimeouts(roundDeadline + resolution, (timeUnit, now, timerId) -> {
+                Assertions.assertTrue(ids.remove(timerId));
+            });
+            Assertions.assertEquals(64 + 255, expired);
+            Assertions.assertTrue(ids.isEmpty());
+            Assertions.assertEquals(0, timeout.count());
+        }
+    }
+
+    @Test
+    public void testSpilledTimersCascade() {
+        long startTime = System.currentTimeMillis();
+        long resolution = 16;
+        long maxTimeInterval = 1024;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, resolution, maxTimeInterval,
+                64, 2, 512);
+        final long deadline = startTime + 60_000;
+        Set<Integer> ids = new HashSet<>();
+        for (int j = 0; j < 300; j++) {
+            int id = timeout.scheduleTimeout(deadline);
+            Assertions.assertTrue(id >= 0);
+            Assertions.assertTrue(ids.add(id));
+        }
+        Assertions.assertEquals(0, timeout.pollTimeouts(deadline, (timeUnit, now, timerId) -> {
+            throw new IllegalStateException("fired early " + timerId);
+        }));
+        Assertions.assertEquals(300, timeout.pollTimeouts(deadline + resolution, (timeUnit, now, timerId) -> {
+            Assertions.assertTrue(ids.remove(timerId));
+        }));
+        Assertions.assertEquals(0, timeout.count());
+    }
+
+    @Test
+    public void testAttachmentPassedOnExpiry() {
+        long startTime = System.currentTimeMillis();
+        long resolution = 32;
+        long maxTimeInterval = 2048;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, resolution, maxTimeInterval, 64, 2);
+        final int nearId = timeout.scheduleTimeout(startTime + 100, 42L);
+        final int plainId = timeout.scheduleTimeout(startTime + 100);
+        final int farId = timeout.scheduleTimeout(startTime + 60_000, -7L);
+        Assertions.assertTrue(plainId >= 0 && nearId >= 0 && farId >= 0);
+
+        Assertions.assertEquals(2, timeout.pollTimeouts(startTime + 200, (timeUnit, now, timerId, attachment) -> {
+            Assertions.assertEquals(timerId == nearId ? 42L : 0L, attachment);
+        }));
+        //slot reused without an attachment reports zero
+        //same bucket one rotation later (128 ticks of 32ms)
+        final int reusedId = timeout.scheduleTimeout(startTime + 100 + 4096);
+        Assertions.assertEquals(nearId, reusedId);
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 4300, (timeUnit, now, timerId, attachment) -> {
+            Assertions.assertEquals(reusedId, timerId);
+            Assertions.assertEquals(0L, attachment);
+        }));
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 60_100, (timeUnit, now, timerId, attachment) -> {
+            Assertions.assertEquals(farId, timerId);
+            Assertions.assertEquals(-7L, attachment);
+        }));
+    }
+
+    @Test
+    public void testStaleHandleCancelIsNoop() {
+        long startTime = System.currentTimeMillis();
+        long resolution = 32;
+        long maxTimeInterval = 2048;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, resolution, maxTimeInterval, 64);
+        final long handle = timeout.scheduleTimeoutHandle(startTime + 100);
+        Assertions.assertTrue(handle >= 0);
+        final int timerId = BitsetTimeWheel.handleTimerId(handle);
+
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 200, (timeUnit, now, expiredId) -> {
+            Assertions.assertEquals(handle, timeout.timerHandle(expiredId));
+        }));
+        //late cancel after expiry
+        Assertions.assertFalse(timeout.cancelHandle(handle));
+
+        //slot reused by another timer, the stale handle must not cancel it
+        final long reused = timeout.scheduleTimeoutHandle(startTime + 100 + 4096);
+        Assertions.assertEquals(timerId, BitsetTimeWheel.handleTimerId(reused));
+        Assertions.assertNotEquals(handle, reused);
+        Assertions.assertFalse(timeout.cancelHandle(handle));
+        Assertions.assertEquals(1, timeout.count());
+
+        Assertions.assertTrue(timeout.cancelHandle(reused));
+        Assertions.assertFalse(timeout.cancelHandle(reused));
+        Assertions.assertEquals(0, timeout.count());
+        Assertions.assertEquals(BitsetTimeWheel.ERR_OUT_OF_RANGE, timeout.scheduleTimeoutHandle(startTime + 10_000));
+    }
+
+    @Test
+    public void testDoubleCancel() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 32, 2048, 64);
+        for (int j = 0; j < 64; j++) {
+            int id = timeout.scheduleTimeout(startTime + 100);
+            Assertions.assertTrue(timeout.cancelTimer(id));
+            Assertions.assertFalse(timeout.cancelTimer(id));
+        }
+        Assertions.assertEquals(0, timeout.count());
+    }
+
+    @Test
+    public void testDirectStorage() {
+        long startTime = System.currentTimeMillis();
+        long resolution = 16;
+        long maxTimeInterval = 1024;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, resolution, maxTimeInterval,
+                128, 2, 512, words -> BitsetStorage.direct(words, BitsetStorage.CACHE_LINE_SIZE));
+        Set<Integer> ids = new HashSet<>();
+        for (int j = 0; j < 300; j++) {
+            Assertions.assertTrue(ids.add(timeout.scheduleTimeout(startTime + 500)));
+            Assertions.assertTrue(ids.add(timeout.scheduleTimeout(startTime + 30_000)));
+        }
+        Assertions.assertFalse(ids.contains((int) BitsetTimeWheel.ERR_CAPACITY_EXCEEDED));
+        final int cancelled = ids.iterator().next();
+        Assertions.assertTrue(timeout.cancelTimer(cancelled));
+        ids.remove(cancelled);
+        final TimeOut.Handler handler = (timeUnit, now, timerId) -> Assertions.assertTrue(ids.remove(timerId));
+        for (long now = startTime; now <= startTime + 31_000; now += 100) {
+            timeout.pollTimeouts(now, handler);
+        }
+        Assertions.assertTrue(ids.isEmpty());
+        Assertions.assertEquals(0, timeout.count());
+    }
+
+    @Test
+    public void testSnapshotRestoreFiresExpiredOnFirstPoll() throws IOException {
+        long startTime = System.currentTimeMillis();
+        long resolution = 16;
+        long maxTimeInterval = 1024;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, resolution, maxTimeInterval,
+                64, 3, 256);
+        Map<Integer, Long> pending = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            final long deadline = startTime + 100 + i * 500L;
+            final int id = timeout.scheduleTimeout(deadline, deadline);
+            Assertions.assertTrue(id >= 0);
+            pending.put(id, deadline);
+        }
+        final long handle = timeout.scheduleTimeoutHandle(startTime + 50_000, 1L);
+        final long staleHandle = timeout.scheduleTimeoutHandle(startTime + 50_000, 2L);
+        Assertions.assertTrue(timeout.cancelHandle(staleHandle));
+        timeout.pollTimeouts(startTime + 10_000, (timeUnit, now, timerId, attachment) -> {
+            Assertions.assertEquals((long) pending.remove(timerId), attachment);
+        });
+
+        Path file = Files.createTempFile("wheel", ".snapshot");
+        try {
+            TimerSnapshots.save(timeout, file);
+            BitsetTimeWheel restored = TimerSnapshots.load(file);
+            Assertions.assertEquals(timeout.count(), restored.count());
+            Assertions.assertEquals(timeout.getCurrentTime(), restored.getCurrentTime());
+            Assertions.assertFalse(restored.cancelHandle(staleHandle));
+
+            //down for a minute, everything due fires on the first poll
+            final long restartTime = startTime + 70_000;
+            final int expired = restored.pollTimeouts(restartTime, (timeUnit, now, timerId, attachment) -> {
+                if (attachment == 1L) {
+                    Assertions.assertEquals(BitsetTimeWheel.handleTimerId(handle), timerId);
+                } else {
+                    Assertions.assertEquals((long) pending.remove(timerId), attachment);
+                }
+            });
+            Assertions.assertEquals(timeout.count() - expired, restored.count());
+            Assertions.assertEquals(pending.size(), restored.count());
+            Assertions.assertTrue(pending.values().stream().allMatch(deadline -> deadline >= restartTime - resolution));
+
+            //remaining timers still cancel by their original ids
+            final int remaining = pending.keySet().iterator().next();
+            Assertions.assertTrue(restored.cancelTimer(remaining));
+            pending.remove(remaining);
+            Assertions.assertEquals(pending.size(), restored.count());
+            Assertions.assertEquals(pending.size(), restored.pollTimeouts(startTime + 200_000, (timeUnit, now, timerId, attachment) -> {
+                Assertions.assertEquals((long) pending.remove(timerId), attachment);
+            }));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testSnapshotOfIdleWheel() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MICROSECONDS, startTime, 32, 2048, 128);
+        timeout.pollTimeouts(startTime + 4096, (timeUnit, now, timerId) -> {
+        });
+        ByteBuffer buffer = ByteBuffer.allocate(timeout.snapshotSize());
+        timeout.writeSnapshot(buffer);
+        Assertions.assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        BitsetTimeWheel restored = BitsetTimeWheel.readSnapshot(buffer);
+        Assertions.assertEquals(startTime + 4096, restored.getCurrentTime());
+        Assertions.assertEquals(0, restored.count());
+        final int id = restored.scheduleTimeout(startTime + 4096 + 100);
+        Assertions.assertEquals(1, restored.pollTimeouts(startTime + 4096 + 200, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(TimeUnit.MICROSECONDS, timeUnit);
+            Assertions.assertEquals(id, timerId);
+        }));
+    }
+
+    @Test
+    public void testNextDeadline() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        Assertions.assertEquals(Long.MAX_VALUE, timeout.nextDeadline());
+        final int first = timeout.scheduleTimeout(startTime + 100);
+        final int second = timeout.scheduleTimeout(startTime + 700);
+        final long nextDeadline = timeout.nextDeadline();
+        Assertions.assertTrue(nextDeadline >= startTime + 100 && nextDeadline < startTime + 100 + 16);
+        Assertions.assertEquals(0, timeout.pollTimeouts(nextDeadline - 1, (timeUnit, now, timerId) -> {
+        }));
+        Assertions.assertEquals(1, timeout.pollTimeouts(nextDeadline, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(first, timerId);
+        }));
+
+        //a cancelled timer no longer counts
+        final int third = timeout.scheduleTimeout(startTime + 300);
+        Assertions.assertTrue(timeout.cancelTimer(third));
+        final long afterCancel = timeout.nextDeadline();
+        Assertions.assertTrue(afterCancel >= startTime + 700 && afterCancel < startTime + 700 + 16);
+        Assertions.assertEquals(1, timeout.pollTimeouts(afterCancel, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(second, timerId);
+        }));
+        Assertions.assertEquals(Long.MAX_VALUE, timeout.nextDeadline());
+    }
+
+    @Test
+    public void testNextDeadlineOnCoarseLevel() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64, 3);
+        final long far = startTime + 200_000;
+        final int farId = timeout.scheduleTimeout(far);
+        Assertions.assertTrue(farId >= 0);
+        long nextDeadline = timeout.nextDeadline();
+        Assertions.assertTrue(nextDeadline > far && nextDeadline <= far + 16);
+        final int nearId = timeout.scheduleTimeout(startTime + 5000);
+        Assertions.assertTrue(timeout.nextDeadline() < far);
+        Assertions.assertTrue(timeout.cancelTimer(nearId));
+        Assertions.assertEquals(nextDeadline, timeout.nextDeadline());
+
+        //cascade part way, the estimate holds once the timer has moved down a level
+        Assertions.assertEquals(0, timeout.pollTimeouts(far - 3000, (timeUnit, now, timerId) -> {
+        }));
+        Assertions.assertEquals(nextDeadline, timeout.nextDeadline());
+        Assertions.assertEquals(0, timeout.pollTimeouts(nextDeadline - 1, (timeUnit, now, timerId) -> {
+        }));
+        Assertions.assertEquals(1, timeout.pollTimeouts(nextDeadline, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(farId, timerId);
+        }));
+    }
+
+    @Test
+    public void testLongIdlePollOnLargeWheel() {
+        long startTime = System.currentTimeMillis();
+        //65536 ticks so the occupancy summary spans several words
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 1, 65_000, 64);
+        final long[] deadlines = {startTime + 3, startTime + 4_100, startTime + 30_000, startTime + 64_999};
+        final int[] ids = new int[deadlines.length];
+        for (int i = 0; i < deadlines.length; i++) {
+            ids[i] = timeout.scheduleTimeout(deadlines[i]);
+            Assertions.assertTrue(ids[i] >= 0);
+        }
+        Assertions.assertTrue(timeout.cancelTimer(ids[1]));
+        final int[] expired = {0};
+        Assertions.assertEquals(3, timeout.pollTimeouts(startTime + 65_500, (timeUnit, now, timerId) -> {
+            final int expected = expired[0] == 0 ? ids[0] : ids[expired[0] + 1];
+            Assertions.assertEquals(expected, timerId);
+            expired[0]++;
+        }));
+        Assertions.assertEquals(startTime + 65_500, timeout.getCurrentTime());
+        Assertions.assertEquals(0, timeout.count());
+    }
+
+    @Test
+    public void testNextDeadlineMatchesEarliestTimer() {
+        long startTime = 1_000_000;
+        long resolution = 8;
+        Random random = new Random(42);
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, resolution, 8192, 128, 2, 1024);
+        TreeMap<Long, Integer> deadlines = new TreeMap<>();
+        Map<Integer, Long> byId = new HashMap<>();
+        long now = startTime;
+        for (int round = 0; round < 2000; round++) {
+            final long deadline = now + 1 + random.nextInt(200_000);
+            final int id = timeout.scheduleTimeout(deadline);
+            Assertions.assertTrue(id >= 0);
+            deadlines.merge(deadline, 1, Integer::sum);
+            byId.put(id, deadline);
+            if (random.nextInt(3) == 0) {
+                final int cancelled = byId.keySet().iterator().next();
+                Assertions.assertTrue(timeout.cancelTimer(cancelled));
+                deadlines.computeIfPresent(byId.remove(cancelled), (k, v) -> v == 1 ? null : v - 1);
+            }
+            final long nextDeadline = timeout.nextDeadline();
+            if (deadlines.isEmpty()) {
+                Assertions.assertEquals(Long.MAX_VALUE, nextDeadline);
+                continue;
+            }
+            final long earliest = deadlines.firstKey();
+            Assertions.assertTrue(nextDeadline <= Math.max(earliest, now) + resolution, "late wake up");
+            Assertions.assertTrue(nextDeadline >= Math.min(earliest, now), "early wake up");
+            now += random.nextInt(500);
+            timeout.pollTimeouts(now, (timeUnit, time, timerId) -> {
+                final Long expired = byId.remove(timerId);
+                Assertions.assertNotNull(expired);
+                Assertions.assertTrue(expired <= time);
+                deadlines.computeIfPresent(expired, (k, v) -> v == 1 ? null : v - 1);
+            });
+        }
+    }
+
+    @Test
+    public void testBatchHandler() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 512);
+        Set<Integer> scheduled = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            scheduled.add(timeout.scheduleTimeout(startTime + 100, i));
+        }
+        final int later = timeout.scheduleTimeout(startTime + 500);
+        List<Integer> batchSizes = new ArrayList<>();
+        TimeoutBatch batch = new TimeoutBatch(128, (timeUnit, now, timerIds, attachments, count) -> {
+            batchSizes.add(count);
+            for (int i = 0; i < count; i++) {
+                Assertions.assertTrue(scheduled.remove(timerIds[i]));
+                Assertions.assertTrue(attachments[i] >= 0 && attachments[i] < 300);
+            }
+        });
+        Assertions.assertEquals(300, timeout.pollTimeouts(startTime + 200, batch));
+        Assertions.assertEquals(List.of(128, 128, 44), batchSizes);
+        Assertions.assertTrue(scheduled.isEmpty());
+
+        //the default path used by other timers delivers the same way
+        BinaryHeapTimer heap = new BinaryHeapTimer(startTime, 4);
+        final int heapId = heap.scheduleTimeout(startTime + 100);
+        batchSizes.clear();
+        scheduled.add(heapId);
+        Assertions.assertEquals(1, heap.pollTimeouts(startTime + 200, batch));
+        Assertions.assertEquals(List.of(1), batchSizes);
+
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 600, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(later, timerId);
+        }));
+    }
+
+    @Test
+    public void testCancelFromHandlerInSameBucket() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        final int first = timeout.scheduleTimeout(startTime + 100);
+        final int second = timeout.scheduleTimeout(startTime + 100);
+        final int[] fired = {0};
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 200, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(first, timerId);
+            Assertions.assertTrue(timeout.cancelTimer(second));
+            fired[0]++;
+        }));
+        Assertions.assertEquals(1, fired[0]);
+        Assertions.assertEquals(0, timeout.count());
+    }
+
+    @Test
+    public void testBulkScheduleAndCancel() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 128, 1, 64);
+        final int count = 260;
+        long[] deadlines = new long[count];
+        for (int i = 0; i < count; i++) {
+            //runs of the same bucket, one bucket overflowing into the spill pool
+            deadlines[i] = startTime + (i < 200 ? 100 : 300 + (i % 3) * 16);
+        }
+        deadlines[10] = startTime - 1;
+        deadlines[20] = startTime + 100_000;
+        int[] ids = new int[count];
+        Assertions.assertEquals(count - 2 - 6, timeout.scheduleTimeouts(deadlines, ids, count));
+        Assertions.assertEquals(BitsetTimeWheel.ERR_EXPIRED, ids[10]);
+        Assertions.assertEquals(BitsetTimeWheel.ERR_OUT_OF_RANGE, ids[20]);
+        Set<Integer> unique = new HashSet<>();
+        int capacityExceeded = 0;
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == BitsetTimeWheel.ERR_CAPACITY_EXCEEDED) {
+                capacityExceeded++;
+            } else if (ids[i] >= 0) {
+                Assertions.assertTrue(unique.add(ids[i]));
+            }
+        }
+        //198 timers for 128 slots and a 64 slot pool
+        Assertions.assertEquals(6, capacityExceeded);
+        Assertions.assertEquals(count - 8, timeout.count());
+
+        //cancel every other one of the first bucket plus duplicates and invalid ids
+        int[] cancel = new int[count];
+        int cancelCount = 0;
+        for (int i = 0; i < 200; i += 2) {
+            if (ids[i] >= 0) {
+                cancel[cancelCount++] = ids[i];
+            }
+        }
+        final int expectedCancelled = cancelCount;
+        cancel[cancelCount++] = cancel[0];
+        cancel[cancelCount++] = -1;
+        cancel[cancelCount++] = Integer.MAX_VALUE;
+        Assertions.assertEquals(expectedCancelled, timeout.cancelTimers(cancel, cancelCount));
+        Assertions.assertEquals(count - 8 - expectedCancelled, timeout.count());
+
+        Set<Integer> cancelled = new HashSet<>();
+        for (int i = 0; i < expectedCancelled; i++) {
+            cancelled.add(cancel[i]);
+        }
+        Assertions.assertEquals(count - 8 - expectedCancelled, timeout.pollTimeouts(startTime + 1000, (timeUnit, now, timerId) -> {
+            Assertions.assertTrue(unique.contains(timerId));
+            Assertions.assertFalse(cancelled.contains(timerId));
+        }));
+    }
+
+    @Test
+    public void testBulkScheduleInterleavedBuckets() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 128, 1, 64);
+        final int count = 360;
+        long[] deadlines = new long[count];
+        for (int i = 0; i < count; i++) {
+            //three buckets interleaved, the first overflowing its 128 slots into the pool
+            deadlines[i] = startTime + (i % 2 == 0 ? 100 : i % 4 == 1 ? 200 : 300);
+        }
+        deadlines[1] = startTime - 1;
+        int[] ids = new int[count];
+        Assertions.assertEquals(count - 1, timeout.scheduleTimeouts(deadlines, ids, count));
+        Assertions.assertEquals(BitsetTimeWheel.ERR_EXPIRED, ids[1]);
+        //each bucket fires whole and alone, ids unique
+        final boolean[] seen = new boolean[count];
+        final long[] polls = {150, 250, 350};
+        final int[] expected = {180, 89, 90};
+        for (int p = 0; p < polls.length; p++) {
+            final long due = startTime + polls[p] - 50;
+            Assertions.assertEquals(expected[p], timeout.pollTimeouts(startTime + polls[p], (timeUnit, now, timerId) -> {
+                for (int i = 0; i < count; i++) {
+                    if (ids[i] == timerId) {
+                        Assertions.assertFalse(seen[i]);
+                        Assertions.assertEquals(due, deadlines[i]);
+                        seen[i] = true;
+                    }
+                }
+            }));
+        }
+        //the bucket scratch is left clear for the next call
+        Assertions.assertEquals(2, timeout.scheduleTimeouts(new long[]{startTime + 1100, startTime + 1100}, ids, 2));
+        Assertions.assertEquals(2, timeout.pollTimeouts(startTime + 1200, (timeUnit, now, timerId) -> {
+        }));
+    }
+
+    @Test
+    public void testBulkOnCascadingWheel() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64, 2);
+        long[] deadlines = {startTime + 100, startTime + 100, startTime + 50_000, startTime + 50_000};
+        int[] ids = new int[deadlines.length];
+        Assertions.assertEquals(4, timeout.scheduleTimeouts(deadlines, ids, ids.length));
+        //let the far timers cascade before cancelling one of them
+        timeout.pollTimeouts(startTime + 49_000, (timeUnit, now, timerId) -> {
+        });
+        Assertions.assertEquals(2, timeout.count());
+        Assertions.assertEquals(1, timeout.cancelTimers(new int[]{ids[0], ids[2]}, 2));
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 60_000, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(ids[3], timerId);
+        }));
+    }
+
+    @Test
+    public void testRescheduleKeepsId() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        final int idle = timeout.scheduleTimeout(startTime + 100, 7L);
+        final int other = timeout.scheduleTimeout(startTime + 100);
+        //push forward on every message, the timer moves only when its bucket comes due
+        for (long t = startTime; t < startTime + 3000; t += 50) {
+            Assertions.assertTrue(timeout.rescheduleTimeout(idle, t + 100));
+            final long now = t;
+            timeout.pollTimeouts(now, (timeUnit, time, timerId) -> Assertions.assertEquals(other, timerId));
+        }
+        Assertions.assertEquals(1, timeout.count());
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 3100, (timeUnit, now, timerId, attachment) -> {
+            Assertions.assertEquals(idle, timerId);
+            Assertions.assertEquals(7L, attachment);
+        }));
+        Assertions.assertFalse(timeout.rescheduleTimeout(idle, startTime + 3300));
+
+        //earlier moves immediately, a moved timer still cancels by its id
+        final int moved = timeout.scheduleTimeout(startTime + 4000);
+        Assertions.assertTrue(timeout.rescheduleTimeout(moved, startTime + 3500));
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 3600, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(moved, timerId);
+        }));
+        final int cancelled = timeout.scheduleTimeout(startTime + 3700);
+        Assertions.assertTrue(timeout.rescheduleTimeout(cancelled, startTime + 3650));
+        Assertions.assertFalse(timeout.rescheduleTimeout(cancelled, startTime + 100_000));
+        Assertions.assertTrue(timeout.cancelTimer(cancelled));
+        Assertions.assertFalse(timeout.cancelTimer(cancelled));
+        Assertions.assertEquals(0, timeout.count());
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 5000, (timeUnit, now, timerId) -> Assertions.fail("unexpected expiry " + timerId)));
+    }
+
+    @Test
+    public void testRescheduleMatchesHeap() {
+        final long startTime = 1000;
+        Random random = new Random(7);
+        BitsetTimeWheel wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 1, 2000, 64, 2, 4096);
+        BinaryHeapTimer heap = new BinaryHeapTimer(startTime, 16);
+        Map<Integer, Integer> wheelToHeap = new HashMap<>();
+        List<Integer> live = new ArrayList<>();
+        long now = startTime;
+        for (int round = 0; round < 20_000; round++) {
+            final int op = random.nextInt(10);
+            if (op < 3 || live.isEmpty()) {
+                final long deadline = now + 1 + random.nextInt(op == 0 ? 50_000 : 1500);
+                final int wheelId = wheel.scheduleTimeout(deadline);
+                Assertions.assertTrue(wheelId >= 0);
+                //the wheel fires once now passes the deadline tick, the heap once now reaches its deadline
+                wheelToHeap.put(wheelId, heap.scheduleTimeout(deadline + 1, wheelId));
+                live.add(wheelId);
+            } else if (op < 9) {
+                final int wheelId = live.get(random.nextInt(live.size()));
+                final long deadline = now + 1 + random.nextInt(op == 3 ? 50_000 : 1500);
+                Assertions.assertTrue(wheel.rescheduleTimeout(wheelId, deadline));
+                Assertions.assertTrue(heap.rescheduleTimeout(wheelToHeap.get(wheelId), deadline + 1));
+            } else {
+                final Integer wheelId = live.remove(random.nextInt(live.size()));
+                Assertions.assertTrue(wheel.cancelTimer(wheelId));
+                Assertions.assertTrue(heap.cancelTimer(wheelToHeap.remove(wheelId)));
+            }
+            now += random.nextInt(20);
+            Set<Integer> expected = new HashSet<>();
+            heap.pollTimeouts(now, (timeUnit, time, timerId, attachment) -> expected.add((int) attachment));
+            wheel.pollTimeouts(now, (timeUnit, time, timerId) -> {
+                Assertions.assertTrue(expected.remove(timerId), "fired early " + timerId);
+                wheelToHeap.remove(timerId);
+                live.remove((Integer) timerId);
+            });
+            Assertions.assertTrue(expected.isEmpty(), "fired late " + expected);
+            Assertions.assertEquals(heap.count(), wheel.count());
+        }
+    }
+
+    @Test
+    public void testRescheduleMatchesModel() {
+        for (int levels = 1; levels <= 3; levels++) {
+            for (int spillTimers : new int[]{0, 256}) {
+                for (long seed = 0; seed < 8; seed++) {
+                    rescheduleMatchesModel(levels, spillTimers, seed);
+                }
+            }
+        }
+    }
+
+    /**
+     * schedule, cancel, reschedule, from handlers too, and bounded polls against a map of deadlines,
+     * a timer fires in the first poll past its deadline tick, nextDeadline is never after that poll
+     */
+    private static void rescheduleMatchesModel(int levels, int spillTimers, long seed) {
+        final long startTime = 1000;
+        final long granularity = 8;
+        final int granularityBits = 3;
+        final BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, granularity,
+                64 * granularity, 64, levels, spillTimers);
+        final int range = levels == 1 ? 400 : 20_000;
+        final Random random = new Random(seed);
+        final Map<Integer, Long> deadlines = new HashMap<>();
+        final List<Integer> live = new ArrayList<>();
+        final String config = "levels " + levels + " spill " + spillTimers + " seed " + seed;
+        long now = startTime;
+        for (int round = 0; round < 2000; round++) {
+            for (int i = random.nextInt(4); i > 0; i--) {
+                final int op = random.nextInt(10);
+                if ((op < 3 || live.isEmpty()) && live.size() < 60) {
+                    final long deadline = now + 1 + random.nextInt(random.nextBoolean() ? range : 200);
+                    final int id = timeout.scheduleTimeout(deadline);
+                    Assertions.assertTrue(id >= 0, config);
+                    deadlines.put(id, deadline);
+                    live.add(id);
+                } else if (op < 8 && !live.isEmpty()) {
+                    final int id = live.get(random.nextInt(live.size()));
+                    //a deadline in a tick already passed is refused, as by scheduleTimeout
+                    final long deadline = random.nextInt(5) == 0 ? now - random.nextInt(50)
+                            : now + 1 + random.nextInt(random.nextBoolean() ? range : 200);
+                    if (timeout.rescheduleTimeout(id, deadline)) {
+                        deadlines.put(id, deadline);
+                    }
+                } else if (!live.isEmpty()) {
+                    final Integer id = live.remove(random.nextInt(live.size()));
+                    Assertions.assertTrue(timeout.cancelTimer(id), config);
+                    deadlines.remove(id);
+                }
+            }
+            long firstTick = Long.MAX_VALUE;
+            for (long deadline : deadlines.values()) {
+                firstTick = Math.min(firstTick, (deadline - startTime) >> granularityBits);
+            }
+            if (firstTick != Long.MAX_VALUE) {
+                final long firstExpiry = Math.max(startTime + ((firstTick + 1) << granularityBits), now);
+                Assertions.assertTrue(timeout.nextDeadline() <= firstExpiry,
+                        config + " round " + round + " next deadline " + timeout.nextDeadline() + " > " + firstExpiry);
+            }
+            now += random.nextInt(random.nextInt(30) == 0 ? 500 : 20);
+            final long time = now;
+            final long nowTick = (now - startTime) >> granularityBits;
+            final TimeOut.AttachmentHandler handler = (timeUnit, t, timerId, attachment) -> {
+                final Long deadline = deadlines.remove(timerId);
+                Assertions.assertTrue(deadline != null, config + " unknown " + timerId);
+                Assertions.assertTrue((deadline - startTime) >> granularityBits < nowTick,
+                        config + " early id " + timerId + " d=" + deadline + " now=" + time);
+                live.remove((Integer) timerId);
+                if (!live.isEmpty() && random.nextInt(3) == 0) {
+                    //push another timer, it may sit later in the word being expired
+                    final int id = live.get(random.nextInt(live.size()));
+                    final long pushed = time + 1 + random.nextInt(300);
+                    if (timeout.rescheduleTimeout(id, pushed)) {
+                        deadlines.put(id, pushed);
+                    }
+                }
+            };
+            if (random.nextBoolean()) {
+                timeout.pollTimeouts(now, handler, 1 + random.nextInt(4));
+            }
+            timeout.pollTimeouts(now, handler);
+            for (Map.Entry<Integer, Long> entry : deadlines.entrySet()) {
+                Assertions.assertTrue((entry.getValue() - startTime) >> granularityBits >= nowTick,
+                        config + " missed id " + entry.getKey() + " d=" + entry.getValue() + " now=" + now);
+            }
+            Assertions.assertEquals(deadlines.size(), timeout.count(), config);
+        }
+    }
+
+    @Test
+    public void testRescheduleHandleAndSnapshot() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        final long handle = timeout.scheduleTimeoutHandle(startTime + 100, 3L);
+        final int touched = timeout.scheduleTimeout(startTime + 100);
+        Assertions.assertTrue(timeout.rescheduleTimeout(BitsetTimeWheel.handleTimerId(handle), startTime + 900));
+        Assertions.assertTrue(timeout.rescheduleTimeout(touched, startTime + 600));
+        //moved out of the first bucket when it came due
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 200, (timeUnit, now, timerId) -> Assertions.fail("unexpected expiry " + timerId)));
+
+        ByteBuffer buffer = ByteBuffer.allocate(timeout.snapshotSize());
+        timeout.writeSnapshot(buffer);
+        buffer.flip();
+        BitsetTimeWheel restored = BitsetTimeWheel.readSnapshot(buffer);
+        Assertions.assertTrue(restored.rescheduleTimeout(touched, startTime + 700));
+        Assertions.assertEquals(0, restored.pollTimeouts(startTime + 650, (timeUnit, now, timerId) -> Assertions.fail("unexpected expiry " + timerId)));
+        Assertions.assertEquals(1, restored.pollTimeouts(startTime + 750, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(touched, timerId);
+        }));
+        Assertions.assertTrue(restored.cancelHandle(handle));
+        Assertions.assertEquals(0, restored.count());
+    }
+
+    @Test
+    public void testMovedTimerReleasesItsSlot() {
+        final long startTime = 1000;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 1, 127, 64, 1);
+        int[] touched = new int[64];
+        for (int i = 0; i < touched.length; i++) {
+            touched[i] = timeout.scheduleTimeout(startTime + 10);
+        }
+        //push a full bucket forward for five rounds, each round moves it when its bucket comes due
+        for (long deadline = startTime + 10; deadline < startTime + 260; deadline += 50) {
+            for (int timerId : touched) {
+                Assertions.assertTrue(timeout.rescheduleTimeout(timerId, deadline + 50));
+            }
+            Assertions.assertEquals(0, timeout.pollTimeouts(deadline + 1, (timeUnit, now, timerId) -> Assertions.fail("unexpected expiry " + timerId)));
+        }
+        //the bucket they were first scheduled into is free again a lap later
+        int[] burst = new int[64];
+        for (int i = 0; i < burst.length; i++) {
+            burst[i] = timeout.scheduleTimeout(startTime + 266);
+            Assertions.assertTrue(burst[i] >= 0);
+            for (int timerId : touched) {
+                Assertions.assertNotEquals(timerId, burst[i]);
+            }
+        }
+        final int[] fired = new int[2];
+        Assertions.assertEquals(128, timeout.pollTimeouts(startTime + 300, (timeUnit, now, timerId) -> {
+            fired[timerId == touched[0] ? 0 : 1]++;
+        }));
+        Assertions.assertEquals(1, fired[0]);
+        Assertions.assertTrue(timeout.cancelTimer(timeout.scheduleTimeout(startTime + 310)));
+    }
+
+    @Test
+    public void testFullWheelDefersMove() {
+        final long startTime = 1000;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 1, 3, 64, 1);
+        timeout.pollTimeouts(startTime + 1, (timeUnit, now, timerId) -> Assertions.fail("unexpected expiry " + timerId));
+        final int touched = timeout.scheduleTimeout(startTime + 1);
+        for (int i = 1; i < 64 * 7; i++) {
+            Assertions.assertTrue(timeout.scheduleTimeout(startTime + 1 + i / 64) >= 0);
+        }
+        Assertions.assertTrue(timeout.rescheduleTimeout(touched, startTime + 7));
+        //every bucket from its deadline to the end of the wheel is full, it stays and moves when its bucket comes round
+        Assertions.assertEquals(63, timeout.pollTimeouts(startTime + 2, (timeUnit, now, timerId) -> Assertions.assertNotEquals(touched, timerId)));
+        Assertions.assertEquals(64 * 6, timeout.pollTimeouts(startTime + 8, (timeUnit, now, timerId) -> Assertions.assertNotEquals(touched, timerId)));
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 10, (timeUnit, now, timerId) -> {
+            Assertions.assertEquals(touched, timerId);
+        }));
+        Assertions.assertEquals(0, timeout.count());
+    }
+
+    @Test
+    public void testBoundedPollResumesMidBucket() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 256, 1, 128);
+        Set<Integer> first = new HashSet<>();
+        Set<Integer> second = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            first.add(timeout.scheduleTimeout(startTime + 100));
+        }
+        for (int i = 0; i < 100; i++) {
+            second.add(timeout.scheduleTimeout(startTime + 400));
+        }
+        final long now = startTime + 2000;
+        final int[] expected = {128, 128, 128, 16, 0};
+        for (int call = 0; call < expected.length; call++) {
+            Assertions.assertEquals(expected[call], timeout.pollTimeouts(now, (timeUnit, time, timerId) -> {
+                //the whole first bucket drains before any of the second
+                if (!first.remove(timerId)) {
+                    Assertions.assertTrue(first.isEmpty());
+                    Assertions.assertTrue(second.remove(timerId));
+                }
+            }, 128));
+            if (call < 2) {
+                Assertions.assertTrue(timeout.getCurrentTime() <= startTime + 100);
+            }
+        }
+        Assertions.assertTrue(first.isEmpty() && second.isEmpty());
+        Assertions.assertEquals(now, timeout.getCurrentTime());
+    }
+
+    @Test
+    public void testBoundedPollKeepsDeadlineOrder() {
+        final long startTime = 1000;
+        Random random = new Random(11);
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 1, 500, 64, 3, 8192);
+        Map<Integer, Long> deadlines = new HashMap<>();
+        final long[] lastFired = {0};
+        long now = startTime;
+        for (int round = 0; round < 5000; round++) {
+            for (int i = random.nextInt(8); i > 0; i--) {
+                final long deadline = now + 1 + random.nextInt(random.nextBoolean() ? 300 : 200_000);
+                final int id = timeout.scheduleTimeout(deadline);
+                Assertions.assertTrue(id >= 0);
+                deadlines.put(id, deadline);
+            }
+            if (!deadlines.isEmpty() && random.nextInt(4) == 0) {
+                final int id = deadlines.keySet().iterator().next();
+                final long deadline = deadlines.get(id) + random.nextInt(1000);
+                Assertions.assertTrue(timeout.rescheduleTimeout(id, deadline));
+                deadlines.put(id, deadline);
+            }
+            now += random.nextInt(random.nextInt(50) == 0 ? 20_000 : 10);
+            final long time = now;
+            timeout.pollTimeouts(now, (timeUnit, t, timerId) -> {
+                final long deadline = deadlines.remove(timerId);
+                Assertions.assertTrue(deadline <= time);
+                Assertions.assertTrue(deadline >= lastFired[0], "out of order");
+                lastFired[0] = deadline;
+            }, 1 + random.nextInt(4));
+        }
+        timeout.pollTimeouts(now + 1_000_000, (timeUnit, t, timerId) -> Assertions.assertNotNull(deadlines.remove(timerId)));
+        Assertions.assertTrue(deadlines.isEmpty());
+        Assertions.assertEquals(0, timeout.count());
+    }
+
+    @Test
+    public void testDeadlineBehindCurrentTickExpired() {
+        long startTime = 0;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        timeout.pollTimeouts(startTime + 500, (timeUnit, now, timerId) -> {
+        });
+        //behind the cursor, would otherwise land a full wheel later
+        Assertions.assertEquals(TimeOut.ERR_EXPIRED, timeout.scheduleTimeout(startTime + 400));
+        int[] ids = new int[2];
+        Assertions.assertEquals(1, timeout.scheduleTimeouts(new long[]{startTime + 400, startTime + 600}, ids, 2));
+        Assertions.assertEquals(TimeOut.ERR_EXPIRED, ids[0]);
+        //the current tick is not yet expired
+        Assertions.assertTrue(timeout.scheduleTimeout(startTime + 500) >= 0);
+    }
+
+    @Test
+    public void testPreciseDeadlineOrder() {
+        long startTime = 0;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        timeout.preciseDeadlines();
+        final long[] deadlines = {47, 33, 15, 40, 1, 32, 8, 46};
+        for (long deadline : deadlines) {
+            Assertions.assertTrue(timeout.scheduleTimeout(startTime + deadline, deadline) >= 0);
+        }
+        final List<Long> fired = new ArrayList<>();
+        Assertions.assertEquals(deadlines.length, timeout.pollTimeouts(startTime + 100,
+                (timeUnit, now, timerId, attachment) -> fired.add(attachment)));
+        Assertions.assertEquals(List.of(1L, 8L, 15L, 32L, 33L, 40L, 46L, 47L), fired);
+        Assertions.assertThrows(IllegalStateException.class, () -> {
+            BitsetTimeWheel scheduled = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+            scheduled.scheduleTimeout(startTime + 10);
+            scheduled.preciseDeadlines();
+        });
+    }
+
+    @Test
+    public void testPreciseDeadlinesWithinCurrentTick() {
+        long startTime = 0;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        timeout.preciseDeadlines();
+        final int early = timeout.scheduleTimeout(startTime + 5);
+        final int moved = timeout.scheduleTimeout(startTime + 12);
+        final int cancelled = timeout.scheduleTimeout(startTime + 9);
+        Assertions.assertEquals(startTime + 5, timeout.nextDeadline());
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 4, (timeUnit, now, timerId) -> Assertions.fail("early " + timerId)));
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 5, (timeUnit, now, timerId) -> Assertions.assertEquals(early, timerId)));
+        //changes to the tick being expired
+        Assertions.assertTrue(timeout.cancelTimer(cancelled));
+        Assertions.assertTrue(timeout.rescheduleTimeout(moved, startTime + 7));
+        final int added = timeout.scheduleTimeout(startTime + 6);
+        Assertions.assertEquals(startTime + 6, timeout.nextDeadline());
+        final List<Integer> fired = new ArrayList<>();
+        Assertions.assertEquals(2, timeout.pollTimeouts(startTime + 11, (timeUnit, now, timerId) -> fired.add(timerId)));
+        Assertions.assertEquals(List.of(added, moved), fired);
+        Assertions.assertEquals(0, timeout.count());
+
+        //a timer pushed out of the tick moves on rather than firing
+        final int pushed = timeout.scheduleTimeout(startTime + 14);
+        Assertions.assertTrue(timeout.rescheduleTimeout(pushed, startTime + 40));
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 39, (timeUnit, now, timerId) -> Assertions.fail("early " + timerId)));
+        Assertions.assertEquals(startTime + 40, timeout.nextDeadline());
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 40, (timeUnit, now, timerId) -> Assertions.assertEquals(pushed, timerId)));
+    }
+
+    @Test
+    public void testPreciseMatchesSortedDeadlines() {
+        final long startTime = 1000;
+        Random random = new Random(5);
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 8, 500, 64, 3, 4096);
+        timeout.preciseDeadlines();
+        Map<Integer, Long> deadlines = new HashMap<>();
+        final long[] lastFired = {0};
+        long now = startTime;
+        for (int round = 0; round < 5000; round++) {
+            for (int i = random.nextInt(6); i > 0; i--) {
+                final long deadline = now + 1 + random.nextInt(random.nextBoolean() ? 40 : 50_000);
+                final int id = timeout.scheduleTimeout(deadline);
+                Assertions.assertTrue(id >= 0);
+                deadlines.put(id, deadline);
+            }
+            if (!deadlines.isEmpty() && random.nextInt(3) == 0) {
+                final int id = deadlines.keySet().iterator().next();
+                final long deadline = Math.max(now + 1, deadlines.get(id) + random.nextInt(40) - 20);
+                Assertions.assertTrue(timeout.rescheduleTimeout(id, deadline));
+                deadlines.put(id, deadline);
+            }
+            now += random.nextInt(random.nextInt(50) == 0 ? 5_000 : 6);
+            final long time = now;
+            final boolean bounded = random.nextBoolean();
+            timeout.pollTimeouts(now, (timeUnit, t, timerId) -> {
+                final long deadline = deadlines.remove(timerId);
+                Assertions.assertTrue(deadline <= time, "early");
+                Assertions.assertTrue(deadline >= lastFired[0], "out of order");
+                lastFired[0] = deadline;
+            }, bounded ? 1 + random.nextInt(4) : Integer.MAX_VALUE);
+            if (!bounded) {
+                for (long deadline : deadlines.values()) {
+                    Assertions.assertTrue(deadline > now, "late");
+                }
+                final long next = timeout.nextDeadline();
+                for (long deadline : deadlines.values()) {
+                    Assertions.assertTrue(next <= deadline);
+                }
+            }
+        }
+        timeout.pollTimeouts(now + 1_000_000, (timeUnit, t, timerId) -> Assertions.assertNotNull(deadlines.remove(timerId)));
+        Assertions.assertTrue(deadlines.isEmpty());
+        Assertions.assertEquals(0, timeout.count());
+    }
+
+    @Test
+    public void testPreciseSnapshot() {
+        long startTime = 0;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        timeout.preciseDeadlines();
+        final int late = timeout.scheduleTimeout(startTime + 27);
+        final int soon = timeout.scheduleTimeout(startTime + 21);
+        timeout.pollTimeouts(startTime + 17, (timeUnit, now, timerId) -> Assertions.fail("early " + timerId));
+
+        ByteBuffer buffer = ByteBuffer.allocate(timeout.snapshotSize());
+        timeout.writeSnapshot(buffer);
+        Assertions.assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        BitsetTimeWheel restored = BitsetTimeWheel.readSnapshot(buffer);
+        Assertions.assertEquals(startTime + 21, restored.nextDeadline());
+        Assertions.assertEquals(1, restored.pollTimeouts(startTime + 21, (timeUnit, now, timerId) -> Assertions.assertEquals(soon, timerId)));
+        Assertions.assertEquals(1, restored.pollTimeouts(startTime + 27, (timeUnit, now, timerId) -> Assertions.assertEquals(late, timerId)));
+    }
+
+    @Test
+    public void testPeriodicKeepsId() {
+        long startTime = 0;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        final int id = timeout.schedulePeriodic(startTime + 100, 100, true, 7L);
+        final int[] fired = {0};
+        for (long now = startTime + 120; now < startTime + 1000; now += 100) {
+            Assertions.assertEquals(1, timeout.pollTimeouts(now, (timeUnit, time, timerId, attachment) -> {
+                Assertions.assertEquals(id, timerId);
+                Assertions.assertEquals(7L, attachment);
+                Assertions.assertEquals(0, timeout.missedPeriods(timerId));
+                fired[0]++;
+            }));
+            Assertions.assertEquals(0, timeout.pollTimeouts(now + 60, (timeUnit, time, timerId) -> Assertions.fail("early " + timerId)));
+            Assertions.assertEquals(1, timeout.count());
+        }
+        Assertions.assertEquals(9, fired[0]);
+        //a one shot reusing the slot after a cancel is not periodic
+        Assertions.assertTrue(timeout.cancelTimer(id));
+        Assertions.assertEquals(0, timeout.count());
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 2000, (timeUnit, time, timerId) -> Assertions.fail("cancelled " + timerId)));
+    }
+
+    @Test
+    public void testPeriodicSkipsMissedPeriods() {
+        long startTime = 0;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        final int id = timeout.schedulePeriodic(startTime + 100, 100);
+        //stalled for 9 periods, fires once
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 1000, (timeUnit, time, timerId) -> {
+            Assertions.assertEquals(9, timeout.missedPeriods(timerId));
+        }));
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 1099, (timeUnit, time, timerId) -> Assertions.fail("early " + timerId)));
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 1120, (timeUnit, time, timerId) -> {
+            Assertions.assertEquals(0, timeout.missedPeriods(timerId));
+        }));
+        //a stall longer than the wheel, the next deadline is out of its reach from the bucket being expired
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 5000, (timeUnit, time, timerId) -> {
+            Assertions.assertEquals(38, timeout.missedPeriods(timerId));
+        }));
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 5099, (timeUnit, time, timerId) -> Assertions.fail("early " + timerId)));
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 5120, (timeUnit, time, timerId) -> Assertions.assertEquals(id, timerId)));
+        Assertions.assertEquals(1, timeout.count());
+    }
+
+    @Test
+    public void testPeriodicFixedDelay() {
+        long startTime = 0;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64, 2);
+        timeout.preciseDeadlines();
+        final int id = timeout.schedulePeriodic(startTime + 100, 50, false, 0L);
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 130, (timeUnit, time, timerId) -> Assertions.assertEquals(id, timerId)));
+        Assertions.assertEquals(startTime + 180, timeout.nextDeadline());
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 179, (timeUnit, time, timerId) -> Assertions.fail("early " + timerId)));
+        //the handler cancels it
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 185, (timeUnit, time, timerId) -> Assertions.assertTrue(timeout.cancelTimer(timerId))));
+        Assertions.assertEquals(0, timeout.count());
+        Assertions.assertEquals(Long.MAX_VALUE, timeout.nextDeadline());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> timeout.schedulePeriodic(startTime + 300, 0));
+    }
+
+    @Test
+    public void testPeriodicSnapshot() {
+        long startTime = 0;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        final int periodic = timeout.schedulePeriodic(startTime + 100, 300);
+        final int oneShot = timeout.scheduleTimeout(startTime + 200);
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 150, (timeUnit, time, timerId) -> Assertions.assertEquals(periodic, timerId)));
+
+        ByteBuffer buffer = ByteBuffer.allocate(timeout.snapshotSize());
+        timeout.writeSnapshot(buffer);
+        Assertions.assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        BitsetTimeWheel restored = BitsetTimeWheel.readSnapshot(buffer);
+        final List<Integer> fired = new ArrayList<>();
+        //400 fires, 700 passed in the same poll is skipped rather than fired again
+        Assertions.assertEquals(2, restored.pollTimeouts(startTime + 720, (timeUnit, time, timerId) -> fired.add(timerId)));
+        Assertions.assertEquals(List.of(oneShot, periodic), fired);
+        Assertions.assertEquals(1, restored.missedPeriods(periodic));
+        Assertions.assertEquals(1, restored.pollTimeouts(startTime + 1020, (timeUnit, time, timerId) -> Assertions.assertEquals(periodic, timerId)));
+        Assertions.assertEquals(1, restored.count());
+    }
+
+    @Test
+    public void testNanosecondWheelAcrossOverflow() {
+        //System.nanoTime may be anywhere, here it overflows 2ms in
+        long startTime = Long.MAX_VALUE - TimeUnit.MILLISECONDS.toNanos(2);
+        long tick = 1024;
+        long step = 100_000;
+        //1us ticks, 4ms on the fine wheel, 17s and 19h on the coarse ones
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.NANOSECONDS, startTime, tick, 4096 * tick - 1 - tick, 64, 3);
+        long[] delays = {50_000, 900_000, 3_000_000, 10_000_000, TimeUnit.SECONDS.toNanos(5)};
+        long[] deadlines = new long[delays.length];
+        long[] fired = new long[delays.length];
+        for (int i = 0; i < delays.length; i++) {
+            deadlines[i] = startTime + delays[i];
+            Assertions.assertTrue(timeout.scheduleTimeout(deadlines[i], i) >= 0);
+        }
+        long now = startTime;
+        int expired = 0;
+        while (expired < delays.length && now - startTime < TimeUnit.SECONDS.toNanos(6)) {
+            now += step;
+            expired += timeout.pollTimeouts(now, (timeUnit, time, timerId, attachment) -> fired[(int) attachment] = time);
+        }
+        Assertions.assertEquals(delays.length, expired);
+        for (int i = 0; i < delays.length; i++) {
+            final long late = fired[i] - deadlines[i];
+            Assertions.assertTrue(late > 0 && late <= tick + step, "timer " + i + " late by " + late);
+        }
+    }
+
+    @Test
+    public void testMultiDayMillisecondWheel() {
+        long startTime = System.currentTimeMillis();
+        long day = TimeUnit.DAYS.toMillis(1);
+        //60 days is beyond an int of milliseconds, 2^20ms ticks
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 1 << 20, 60 * day, 64);
+        int timerId = timeout.scheduleTimeout(startTime + 59 * day, 7);
+        Assertions.assertTrue(timerId >= 0);
+        Assertions.assertEquals(BitsetTimeWheel.ERR_OUT_OF_RANGE, timeout.scheduleTimeout(startTime + 120 * day));
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 59 * day, (timeUnit, now, id) -> Assertions.fail("unexpected expiry " + id)));
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 59 * day + (1 << 20),
+                (timeUnit, now, id, attachment) -> {
+                    Assertions.assertEquals(timerId, id);
+                    Assertions.assertEquals(7, attachment);
+                }));
+    }
+
+    @Test
+    public void testRejectsWheelsBeyondLimits() {
+        //a bucket per nanosecond over 10s
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BitsetTimeWheel(TimeUnit.NANOSECONDS, 0, 1,
+                TimeUnit.SECONDS.toNanos(10), 64));
+        //2^21 buckets of 4096 timers exceed int ids, rejected before allocating
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BitsetTimeWheel(TimeUnit.MILLISECONDS, 0, 1,
+                1 << 20, 4096));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BitsetTimeWheel(TimeUnit.NANOSECONDS, 0, 1,
+                Long.MAX_VALUE, 64));
+    }
+
+    @Test
+    public void testCancelGroup() {
+        long startTime = System.currentTimeMillis();
+        //a second level so a member cascades and is cancelled where it lives now
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64, 2);
+        timeout.timerGroups(16);
+        int[] session = new int[4];
+        session[0] = timeout.scheduleTimeout(startTime + 100, 0, 1);
+        session[1] = timeout.scheduleTimeout(startTime + 4200, 1, 1);
+        session[2] = timeout.scheduleTimeout(startTime + 5000, 2, 1);
+        session[3] = timeout.scheduleTimeout(startTime + 400, 3, 1);
+        int other = timeout.scheduleTimeout(startTime + 200, 7, 2);
+        int ungrouped = timeout.scheduleTimeout(startTime + 200, 8);
+        Assertions.assertTrue(timeout.cancelTimer(session[3]));
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 150, (timeUnit, now, timerId) -> Assertions.assertEquals(session[0], timerId)));
+        //the coarse timers have cascaded to level 0
+        Assertions.assertEquals(2, timeout.pollTimeouts(startTime + 4150, (timeUnit, now, timerId, attachment) -> Assertions.assertTrue(attachment > 3)));
+
+        Assertions.assertEquals(2, timeout.cancelGroup(1));
+        Assertions.assertEquals(0, timeout.cancelGroup(1));
+        Assertions.assertEquals(0, timeout.count());
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 6000, (timeUnit, now, timerId) -> Assertions.fail("unexpected expiry " + timerId)));
+        Assertions.assertFalse(timeout.cancelTimer(other));
+        Assertions.assertFalse(timeout.cancelTimer(ungrouped));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> timeout.cancelGroup(16));
+        Assertions.assertThrows(IllegalStateException.class, () -> timeout.timerGroups(16));
+        BitsetTimeWheel plain = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        Assertions.assertThrows(IllegalStateException.class, () -> plain.cancelGroup(0));
+    }
+
+    @Test
+    public void testCancelGroupAtScale() {
+        long startTime = 0;
+        final int sessions = 1024;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 1, 4096, 64, 1, 1 << 14);
+        timeout.timerGroups(sessions);
+        Random random = new Random(7);
+        for (int session = 0; session < sessions; session++) {
+            for (int i = 0; i < 4; i++) {
+                Assertions.assertTrue(timeout.scheduleTimeout(startTime + 1 + random.nextInt(4000), session, session) >= 0);
+            }
+        }
+        //half the sessions disconnect
+        for (int session = 0; session < sessions; session += 2) {
+            Assertions.assertEquals(4, timeout.cancelGroup(session));
+        }
+        Assertions.assertEquals(sessions * 2, timeout.count());
+        final int[] fired = new int[sessions];
+        timeout.pollTimeouts(startTime + 4096, (timeUnit, now, timerId, session) -> fired[(int) session]++);
+        for (int session = 0; session < sessions; session++) {
+            Assertions.assertEquals((session & 1) == 0 ? 0 : 4, fired[session]);
+        }
+    }
+
+    @Test
+    public void testExpireGroup() {
+        long startTime = System.currentTimeMillis();
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        timeout.timerGroups(4);
+        int idle = timeout.scheduleTimeout(startTime + 500, 1, 3);
+        int request = timeout.scheduleTimeout(startTime + 200, 2, 3);
+        int heartbeat = timeout.schedulePeriodic(startTime + 100, 100, true, 3);
+        Assertions.assertTrue(timeout.addToGroup(heartbeat, 3));
+        int fired = timeout.scheduleTimeout(startTime + 50, 4, 3);
+        Assertions.assertEquals(1, timeout.pollTimeouts(startTime + 80, (timeUnit, now, timerId) -> Assertions.assertEquals(fired, timerId)));
+        Assertions.assertFalse(timeout.addToGroup(fired, 3));
+
+        final long[] seen = new long[8];
+        final int[] rescheduled = {-1};
+        //the first member handled cancels the others or schedules a new one into the group, which stays
+        Assertions.assertEquals(2, timeout.expireGroup(3, startTime + 90, (timeUnit, now, timerId, attachment) -> {
+            seen[(int) attachment]++;
+            Assertions.assertEquals(startTime + 90, now);
+            if (timerId == idle) {
+                timeout.cancelTimer(request);
+            } else if (timerId == request) {
+                timeout.cancelTimer(idle);
+            }
+            if (rescheduled[0] < 0) {
+                rescheduled[0] = timeout.scheduleTimeout(startTime + 300, 5, 3);
+            }
+        }));
+        Assertions.assertEquals(1, seen[1] + seen[2]);
+        Assertions.assertEquals(1, seen[3]);
+        Assertions.assertEquals(1, timeout.count());
+        Assertions.assertEquals(0, timeout.pollTimeouts(startTime + 250, (timeUnit, now, timerId) -> Assertions.fail("unexpected expiry " + timerId)));
+        Assertions.assertEquals(1, timeout.expireGroup(3, startTime + 260, (timeUnit, now, timerId, attachment) -> {
+            Assertions.assertEquals(rescheduled[0], timerId);
+            Assertions.assertEquals(5, attachment);
+        }));
+        Assertions.assertEquals(0, timeout.count());
+    }
+
+    @Test
+    public void testGroupSnapshot() {
+        long startTime = 0;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64, 2);
+        timeout.timerGroups(8);
+        timeout.scheduleTimeout(startTime + 100, 1, 5);
+        timeout.scheduleTimeout(startTime + 3000, 2, 5);
+        timeout.scheduleTimeout(startTime + 200, 3, 6);
+        ByteBuffer buffer = ByteBuffer.allocate(timeout.snapshotSize());
+        timeout.writeSnapshot(buffer);
+        Assertions.assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        BitsetTimeWheel restored = BitsetTimeWheel.readSnapshot(buffer);
+        Assertions.assertEquals(2, restored.cancelGroup(5));
+        Assertions.assertEquals(1, restored.pollTimeouts(startTime + 4000, (timeUnit, now, timerId, attachment) -> Assertions.assertEquals(3, attachment)));
+        Assertions.assertEquals(0, restored.count());
+    }
+
+    @Test
+    public void testSnapshotWithUnknownFlagRejected() {
+        long startTime = 0;
+        BitsetTimeWheel timeout = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        timeout.scheduleTimeout(startTime + 100);
+        ByteBuffer buffer = ByteBuffer.allocate(timeout.snapshotSize());
+        timeout.writeSnapshot(buffer);
+        //flags are the last byte of the 61 byte header, a field this reader does not know would follow every slot
+        buffer.put(60, (byte) (buffer.get(60) | 64));
+        buffer.flip();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BitsetTimeWheel.readSnapshot(buffer));
+    }
 }
@@ -0,0 +1,117 @@
+package xyz.isaiahp.timer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TimerDriverTests {
+
+    @Test
+    public void testDoWorkReadsClockOnce() {
+        long startTime = 0;
+        final long[] time = {startTime};
+        final AtomicInteger clockReads = new AtomicInteger();
+        TimerDriver.Clock clock = () -> {
+            clockReads.incrementAndGet();
+            return time[0];
+        };
+        BitsetTimeWheel wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        final long[] seenNow = new long[1];
+        final TimerDriver[] driver = new TimerDriver[1];
+        driver[0] = new TimerDriver(wheel, clock, TimerDriver.IdleStrategy.busySpin(),
+                (timeUnit, now, timerId, attachment) -> {
+                    seenNow[0] = driver[0].now();
+                    //re-arm from the cached time, no clock read
+                    wheel.scheduleTimeout(driver[0].now() + 100, attachment + 1);
+                });
+        wheel.scheduleTimeout(startTime + 100, 0);
+
+        Assertions.assertEquals(0, driver[0].doWork());
+        time[0] = startTime + 200;
+        Assertions.assertEquals(1, driver[0].doWork());
+        Assertions.assertEquals(startTime + 200, seenNow[0]);
+        Assertions.assertEquals(startTime + 200, driver[0].now());
+        Assertions.assertEquals(2, clockReads.get());
+        Assertions.assertEquals(1, wheel.count());
+    }
+
+    @Test
+    public void testNanosToNextDeadline() {
+        long startTime = 0;
+        final long[] time = {startTime};
+        BitsetTimeWheel wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 16, 1024, 64);
+        TimerDriver driver = new TimerDriver(wheel, () -> time[0], TimerDriver.IdleStrategy.yielding(),
+                (timeUnit, now, timerId, attachment) -> {
+                });
+        Assertions.assertEquals(Long.MAX_VALUE, driver.nanosToNextDeadline());
+        wheel.scheduleTimeout(startTime + 100, 0);
+        final long nanos = driver.nanosToNextDeadline();
+        Assertions.assertTrue(nanos >= TimeUnit.MILLISECONDS.toNanos(100), "never parks past the deadline " + nanos);
+        Assertions.assertTrue(nanos <= TimeUnit.MILLISECONDS.toNanos(100 + 16), "never parks past the deadline " + nanos);
+        //measured from the time of the last doWork, the clock is not read again
+        time[0] = startTime + 60;
+        Assertions.assertEquals(nanos, driver.nanosToNextDeadline());
+        Assertions.assertEquals(0, driver.doWork());
+        Assertions.assertEquals(nanos - TimeUnit.MILLISECONDS.toNanos(60), driver.nanosToNextDeadline());
+        time[0] = startTime + 500;
+        Assertions.assertEquals(nanos - TimeUnit.MILLISECONDS.toNanos(60), driver.nanosToNextDeadline());
+    }
+
+    @Test
+    public void testRebasedNanoClock() {
+        TimerDriver.Clock clock = TimerDriver.Clock.nanoTime(TimeUnit.MILLISECONDS, 1000);
+        final long first = clock.time();
+        Assertions.assertTrue(first >= 1000 && first < 1000 + 1000);
+        Assertions.assertTrue(clock.time() >= first);
+    }
+
+    @Test
+    public void testRunParksUntilDeadline() throws Exception {
+        final long startTime = 0;
+        TimerDriver.Clock clock = TimerDriver.Clock.nanoTime(TimeUnit.MILLISECONDS, startTime);
+        BitsetTimeWheel wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 1, 1024, 64);
+        final CountDownLatch fired = new CountDownLatch(3);
+        final AtomicLong lastFired = new AtomicLong();
+        TimerDriver driver = new TimerDriver(wheel, clock,
+                TimerDriver.IdleStrategy.parkUntilDeadline(TimeUnit.SECONDS.toNanos(1)),
+                (timeUnit, now, timerId, attachment) -> {
+                    lastFired.set(clock.time());
+                    fired.countDown();
+                });
+        //scheduled before the driver thread starts, from then on only the driver touches the wheel
+        wheel.schedulePeriodic(startTime + 20, 20);
+        Thread thread = new Thread(driver);
+        thread.start();
+        Assertions.assertTrue(fired.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(lastFired.get() >= startTime + 60);
+        driver.close();
+        thread.join(5000);
+        Assertions.assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void testBackoffInDutyCycle() throws Exception {
+        final long startTime = 0;
+        TimerDriver.Clock clock = TimerDriver.Clock.nanoTime(TimeUnit.MILLISECONDS, startTime);
+        BitsetTimeWheel wheel = new BitsetTimeWheel(TimeUnit.MILLISECONDS, startTime, 1, 1024, 64);
+        final AtomicInteger expired = new AtomicInteger();
+        TimerDriver driver = new TimerDriver(wheel, clock,
+                TimerDriver.IdleStrategy.backoff(10, 10, 1000, TimeUnit.MILLISECONDS.toNanos(100)),
+                (timeUnit, now, timerId, attachment) -> expired.incrementAndGet());
+        wheel.scheduleTimeout(startTime + 10, 0);
+        wheel.scheduleTimeout(startTime + 30, 0);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        int otherWork = 0;
+        while (expired.get() < 2 && System.nanoTime() < deadline) {
+            //the application's own work shares the cycle
+            final int work = driver.doWork() + ((otherWork++ & 7) == 0 ? 1 : 0);
+            driver.idle(work);
+        }
+        Assertions.assertEquals(2, expired.get());
+        Assertions.assertTrue(driver.now() >= startTime + 30);
+    }
+}
@@ -0,0 +1,202 @@
+package xyz.isaiahp.timer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WheelScheduledExecutorTests {
+
+    @Test
+    public void testRunsNoEarlierThanDelay() throws Exception {
+        WheelScheduledExecutor executor = new WheelScheduledExecutor(Runnable::run);
+        final long start = System.nanoTime();
+        ScheduledFuture<Long> future = executor.schedule(() -> System.nanoTime() - start, 20, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(future.get(5, TimeUnit.SECONDS) >= TimeUnit.MILLISECONDS.toNanos(20));
+        Assertions.assertTrue(future.isDone());
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        executor.schedule(ran::countDown, 0, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(ran.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        WheelScheduledExecutor executor = new WheelScheduledExecutor(Runnable::run);
+        final AtomicInteger runs = new AtomicInteger();
+        ScheduledFuture<?> cancelled = executor.schedule(runs::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> kept = executor.schedule(runs::incrementAndGet, 60, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(cancelled.cancel(false));
+        Assertions.assertFalse(cancelled.cancel(false));
+        Assertions.assertTrue(cancelled.isCancelled());
+        Assertions.assertThrows(CancellationException.class, cancelled::get);
+        kept.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(1, runs.get());
+        Assertions.assertFalse(kept.cancel(false));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFailureAndDispatcher() throws Exception {
+        ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        WheelScheduledExecutor executor = new WheelScheduledExecutor(dispatcher);
+        final Thread dispatcherThread = dispatcher.submit(Thread::currentThread).get();
+        Assertions.assertSame(dispatcherThread, executor.schedule(Thread::currentThread, 1, TimeUnit.MILLISECONDS).get());
+        ScheduledFuture<Object> failed = executor.schedule(() -> {
+            throw new IllegalStateException("boom");
+        }, 1, TimeUnit.MILLISECONDS);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, failed::get);
+        Assertions.assertTrue(e.getCause() instanceof IllegalStateException);
+        executor.shutdownNow();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testPeriodic() throws Exception {
+        WheelScheduledExecutor executor = new WheelScheduledExecutor(Runnable::run);
+        final CountDownLatch fixedRate = new CountDownLatch(5);
+        final CountDownLatch fixedDelay = new CountDownLatch(5);
+        ScheduledFuture<?> rate = executor.scheduleAtFixedRate(fixedRate::countDown, 0, 5, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> delay = executor.scheduleWithFixedDelay(fixedDelay::countDown, 0, 5, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(fixedRate.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(fixedDelay.await(5, TimeUnit.SECONDS));
+        Assertions.assertFalse(rate.isDone());
+        Assertions.assertTrue(rate.cancel(false));
+        //shutdown cancels periodic tasks
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(delay.isCancelled());
+        Assertions.assertThrows(RejectedExecutionException.class,
+                () -> executor.schedule(() -> { }, 1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testDelayBeyondWheelRange() throws Exception {
+        //16ms wheel, single level
+        WheelScheduledExecutor executor = new WheelScheduledExecutor(Runnable::run, TimeUnit.MILLISECONDS, 1, 16, 64, 1, 0, 0);
+        final long start = System.nanoTime();
+        ScheduledFuture<Long> future = executor.schedule(() -> System.nanoTime() - start, 100, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(future.get(5, TimeUnit.SECONDS) >= TimeUnit.MILLISECONDS.toNanos(100));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFuturesRecycled() throws Exception {
+        WheelScheduledExecutor executor = new WheelScheduledExecutor(Runnable::run, TimeUnit.MILLISECONDS, 1, 1024, 64, 1, 0, 16);
+        final AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < 50; i++) {
+            ScheduledFuture<?> cancelled = executor.schedule(runs::incrementAndGet, 100, TimeUnit.MILLISECONDS);
+            Assertions.assertTrue(cancelled.cancel(false));
+            //cancels are applied when the tick thread wakes
+            ScheduledFuture<?> ran = executor.schedule(runs::incrementAndGet, 1, TimeUnit.MILLISECONDS);
+            ran.get(5, TimeUnit.SECONDS);
+            Assertions.assertTrue(ran.isDone());
+        }
+        Assertions.assertTrue(executor.recycledFutures() > 0, "futures recycled " + executor.recycledFutures());
+        Assertions.assertEquals(50, runs.get());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testStaleFutureStaysCancelled() throws Exception {
+        WheelScheduledExecutor executor = new WheelScheduledExecutor(Runnable::run, TimeUnit.MILLISECONDS, 1, 1024, 64, 1, 0, 16);
+        final List<ScheduledFuture<?>> stale = new ArrayList<>();
+        final List<ScheduledFuture<?>> live = new ArrayList<>();
+        final AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < 50; i++) {
+            ScheduledFuture<?> cancelled = executor.schedule(runs::incrementAndGet, 10, TimeUnit.SECONDS);
+            Assertions.assertTrue(cancelled.cancel(false));
+            stale.add(cancelled);
+            //a wake to apply the cancel, the future is recycled by a later schedule
+            executor.schedule(() -> { }, 0, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+            live.add(executor.schedule(runs::incrementAndGet, 50, TimeUnit.MILLISECONDS));
+        }
+        Assertions.assertTrue(executor.recycledFutures() > 0);
+        for (ScheduledFuture<?> future : stale) {
+            Assertions.assertTrue(future.isCancelled());
+            Assertions.assertTrue(future.isDone());
+            Assertions.assertFalse(future.cancel(true));
+            Assertions.assertThrows(CancellationException.class, future::get);
+        }
+        for (ScheduledFuture<?> future : live) {
+            future.get(5, TimeUnit.SECONDS);
+            Assertions.assertFalse(future.isCancelled());
+        }
+        Assertions.assertEquals(50, runs.get());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCancelWakesWaiterBeforeRecycle() throws Exception {
+        WheelScheduledExecutor executor = new WheelScheduledExecutor(Runnable::run, TimeUnit.MILLISECONDS, 1, 1024, 64, 1, 0, 16);
+        for (int i = 0; i < 20; i++) {
+            ScheduledFuture<?> future = executor.schedule(() -> { }, 10, TimeUnit.SECONDS);
+            final CountDownLatch cancelled = new CountDownLatch(1);
+            Thread waiter = new Thread(() -> {
+                try {
+                    future.get();
+                } catch (CancellationException e) {
+                    cancelled.countDown();
+                } catch (InterruptedException | ExecutionException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            waiter.start();
+            while (waiter.getState() != Thread.State.WAITING) {
+                Thread.onSpinWait();
+            }
+            Assertions.assertTrue(future.cancel(false));
+            //schedules that may pick up the recycled future
+            for (int j = 0; j < 16; j++) {
+                executor.schedule(() -> { }, 10, TimeUnit.SECONDS);
+            }
+            Assertions.assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        }
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testShutdownWaitsForRunningTask() throws Exception {
+        ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        WheelScheduledExecutor executor = new WheelScheduledExecutor(dispatcher);
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.schedule(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        //the wheel is empty, the tick thread is parked until the task reports done
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(3, TimeUnit.SECONDS));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testShutdownNow() throws Exception {
+        WheelScheduledExecutor executor = new WheelScheduledExecutor(Runnable::run);
+        final AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            executor.schedule(runs::incrementAndGet, 10, TimeUnit.SECONDS);
+        }
+        List<Runnable> neverRun = executor.shutdownNow();
+        Assertions.assertEquals(10, neverRun.size());
+        Assertions.assertTrue(executor.isTerminated());
+        Assertions.assertEquals(0, runs.get());
+    }
+}